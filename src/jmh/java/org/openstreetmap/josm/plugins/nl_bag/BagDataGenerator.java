@@ -0,0 +1,114 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Creates synthetic data sets with BAG buildings and addresses for the benchmarks.
+ */
+public class BagDataGenerator {
+    // municipality 0363, object type 10 (pand)
+    private static final long FIRST_REF_BAG = 363100000000000L;
+    private static final String[] BUILDING_VALUES = {"yes", "house", "apartments", "industrial", "shed", "church", "construction"};
+    private static final String[] SOURCE_DATES = {"2019-07-10", "2020-11-29", "2021-11-30", "2022-03-29"};
+
+    private final Random random;
+    private final double duplicateRate;
+    private final double shortRefBagRate;
+    private long nextId = 1;
+
+    /**
+     * @param seed seed for the random values
+     * @param duplicateRate fraction of buildings reusing the ref:bag of another building
+     * @param shortRefBagRate fraction of ref:bag values with 15 instead of 16 digits
+     */
+    public BagDataGenerator(long seed, double duplicateRate, double shortRefBagRate) {
+        this.random = new Random(seed);
+        this.duplicateRate = duplicateRate;
+        this.shortRefBagRate = shortRefBagRate;
+    }
+
+    /**
+     * @param buildings the number of buildings
+     * @param addresses the number of address nodes
+     * @param existing true for primitives with a positive id, false for new primitives
+     * @return the data set
+     */
+    public DataSet createDataSet(int buildings, int addresses, boolean existing) {
+        DataSet ds = new DataSet();
+        for (int i = 0; i < buildings; i++) {
+            long refBag = i > 0 && random.nextDouble() < duplicateRate
+                    ? FIRST_REF_BAG + random.nextInt(i) : FIRST_REF_BAG + i;
+            createBuilding(ds, i, refBag, existing);
+        }
+        for (int i = 0; i < addresses; i++) {
+            Node n = createNode(ds, i, 0.5, existing);
+            n.put("addr:street", "Straat " + (i / 100));
+            n.put("addr:housenumber", Integer.toString(1 + i % 100));
+            n.put("addr:postcode", String.format("%04d AB", 1000 + (i / 100) % 9000));
+            n.put("addr:city", "Plaats " + (i / 10000));
+        }
+        return ds;
+    }
+
+    /**
+     * Create pairs of an existing and a new building with the same ref:bag, as offered to the fixer.
+     * @param pairs the number of pairs
+     * @return the original and new building of each pair
+     */
+    public List<OsmPrimitive[]> createDuplicatePairs(int pairs) {
+        DataSet ds = new DataSet();
+        List<OsmPrimitive[]> result = new ArrayList<>(pairs);
+        for (int i = 0; i < pairs; i++) {
+            Way original = createBuilding(ds, i, FIRST_REF_BAG + i, true);
+            Way newBuilding = createBuilding(ds, i, FIRST_REF_BAG + i, false);
+            result.add(new OsmPrimitive[] {original, newBuilding});
+        }
+        return result;
+    }
+
+    private Way createBuilding(DataSet ds, int index, long refBag, boolean existing) {
+        List<Node> nodes = new ArrayList<>(5);
+        for (int corner = 0; corner < 4; corner++) {
+            nodes.add(createNode(ds, index, corner * 0.00001, existing));
+        }
+        nodes.add(nodes.get(0));
+        Way w = existing ? new Way(nextId++, 1) : new Way();
+        w.setNodes(nodes);
+        String building = BUILDING_VALUES[random.nextInt(BUILDING_VALUES.length)];
+        if ("construction".equals(building)) {
+            w.put(BagUtils.CONSTRUCTION, BUILDING_VALUES[random.nextInt(BUILDING_VALUES.length - 1)]);
+        }
+        w.put(BagUtils.BUILDING, building);
+        w.put(BagUtils.REF_BAG, random.nextDouble() < shortRefBagRate ? Long.toString(refBag) : BagUtils.formatRefBag(refBag));
+        w.put(BagUtils.SOURCE, "BAG");
+        w.put(BagUtils.SOURCE_DATE, SOURCE_DATES[random.nextInt(SOURCE_DATES.length)]);
+        w.put(BagUtils.START_DATE, Integer.toString(1900 + random.nextInt(120)));
+        ds.addPrimitive(w);
+        return w;
+    }
+
+    private Node createNode(DataSet ds, int index, double offset, boolean existing) {
+        Node n = existing ? new Node(nextId++, 1) : new Node();
+        n.setCoor(new LatLon(52.0 + (index / 1000) * 0.0001 + offset, 5.0 + (index % 1000) * 0.0001 + offset));
+        ds.addPrimitive(n);
+        return n;
+    }
+
+    /**
+     * @param ds the data set
+     * @return all primitives of the data set, in a fixed order
+     */
+    public static List<OsmPrimitive> getPrimitives(DataSet ds) {
+        OsmPrimitive[] primitives = ds.allPrimitives().toArray(new OsmPrimitive[0]);
+        return new ArrayList<>(Arrays.asList(primitives));
+    }
+}
@@ -0,0 +1,70 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.spi.preferences.MemoryPreferences;
+
+/**
+ * Benchmarks building the ref:bag index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BagValidationDataBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int buildings;
+
+    @Param({"0.01"})
+    public double duplicateRate;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private DataSet ds;
+    private List<OsmPrimitive> primitives;
+
+    @Setup
+    public void setUp() {
+        Config.setPreferencesInstance(new MemoryPreferences());
+        Config.getPref().putBoolean(DataSetBagIndex.PREF_PARALLEL, parallel);
+        ds = new BagDataGenerator(42, duplicateRate, 0.5).createDataSet(buildings, 0, false);
+        primitives = BagDataGenerator.getPrimitives(ds);
+    }
+
+    @Benchmark
+    public Map<RefBagKey, Set<BagObjectOsmPrimitive>> indexInsertion() {
+        BagValidationData data = new BagValidationData();
+        for (OsmPrimitive osm : primitives) {
+            if (BagUtils.isTaggedAsBagObject(osm)) {
+                data.add(osm);
+            }
+        }
+        return data.getDuplicateRefBagOsmPrimitives();
+    }
+
+    @Benchmark
+    public Map<RefBagKey, Set<BagObjectOsmPrimitive>> dataSetIndexRebuild() {
+        DataSetBagIndex.removeIndex(ds);
+        return DataSetBagIndex.getIndex(ds).getDuplicateRefBagOsmPrimitives();
+    }
+}
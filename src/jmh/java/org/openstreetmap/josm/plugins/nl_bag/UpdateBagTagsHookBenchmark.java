@@ -0,0 +1,55 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.data.APIDataSet;
+import org.openstreetmap.josm.data.UndoRedoHandler;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.spi.preferences.MemoryPreferences;
+
+/**
+ * Benchmarks padding ref:bag values before upload.
+ * Each invocation also undoes the change, so every run sees the same short ref:bag values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class UpdateBagTagsHookBenchmark {
+    @Param({"10000", "100000"})
+    public int buildings;
+
+    @Param({"0.5"})
+    public double shortRefBagRate;
+
+    private APIDataSet apiDataSet;
+    private final UpdateBagTagsHook hook = new UpdateBagTagsHook();
+
+    @Setup
+    public void setUp() {
+        Config.setPreferencesInstance(new MemoryPreferences());
+        DataSet ds = new BagDataGenerator(42, 0, shortRefBagRate).createDataSet(buildings, 0, false);
+        apiDataSet = new APIDataSet(ds);
+    }
+
+    @Benchmark
+    public boolean checkUpload() {
+        boolean result = hook.checkUpload(apiDataSet);
+        UndoRedoHandler.getInstance().undo();
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package org.openstreetmap.josm.plugins.nl_bag.validation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.plugins.nl_bag.BagDataGenerator;
+import org.openstreetmap.josm.plugins.nl_bag.validation.DuplicateBag.DuplicateBAGObjectFixer;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.spi.preferences.MemoryPreferences;
+
+/**
+ * Benchmarks a complete {@link DuplicateBag} run and the tag merge of the fixer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DuplicateBagBenchmark {
+    @Param({"10000", "100000"})
+    public int buildings;
+
+    @Param({"0.01", "0.1"})
+    public double duplicateRate;
+
+    @Param({"0.5"})
+    public double shortRefBagRate;
+
+    private List<OsmPrimitive> primitives;
+    private List<OsmPrimitive[]> pairs;
+
+    @Setup
+    public void setUp() {
+        Config.setPreferencesInstance(new MemoryPreferences());
+        BagDataGenerator generator = new BagDataGenerator(42, duplicateRate, shortRefBagRate);
+        primitives = BagDataGenerator.getPrimitives(generator.createDataSet(buildings, buildings, false));
+        pairs = generator.createDuplicatePairs((int) (buildings * duplicateRate));
+    }
+
+    @Benchmark
+    public List<TestError> duplicateBag() {
+        // without edit layer the test indexes the visited primitives itself
+        DuplicateBag test = new DuplicateBag();
+        test.startTest(NullProgressMonitor.INSTANCE);
+        test.visit(primitives);
+        test.endTest();
+        return test.getErrors();
+    }
+
+    @Benchmark
+    public void fixerTagMerge(Blackhole blackhole) {
+        for (OsmPrimitive[] pair : pairs) {
+            blackhole.consume(DuplicateBAGObjectFixer.getUpdatedBAGObjectCommands(pair[0], pair[1]));
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+
+/**
+ * The BAG-related tags of a primitive as bit mask, so the validator and the fixer can test
+ * them without repeated tag lookups. The flags are cached for the data sets of the data layers,
+ * see {@link #add(DataSet)}, by primitive identity, so they survive the new ids assigned by an
+ * upload. They are dropped when the tags of a primitive change or it is removed. The flags of
+ * primitives of other data sets are computed on each call.
+ */
+public final class BagFlags implements DataSetListenerAdapter.Listener {
+    /** Has a ref:bag */
+    public static final int BAG_OBJECT = 1;
+    /** Has a ref:bag:old */
+    public static final int REF_BAG_OLD = 1 << 1;
+    /** building or landuse is static_caravan */
+    public static final int STATIC_CARAVAN = 1 << 2;
+    /** Has a note:bag */
+    public static final int NOTE_BAG = 1 << 3;
+    /** Has a construction */
+    public static final int CONSTRUCTION = 1 << 4;
+    /** Has a building other than building=no */
+    public static final int BUILDING = 1 << 5;
+    /** Has a start_date */
+    public static final int START_DATE = 1 << 6;
+    /** Has a source */
+    public static final int SOURCE = 1 << 7;
+    /** Has a valid source:date */
+    public static final int SOURCE_DATE = 1 << 8;
+
+    private static final int MIN_BITS = 6;
+    private static final Map<DataSet, BagFlags> caches = new HashMap<>();
+
+    private final DataSetListenerAdapter adapter = new DataSetListenerAdapter(this);
+    // open addressing table from primitive to flags, null is a free slot
+    private OsmPrimitive[] keys;
+    private short[] values;
+    private int shift;
+    private int mask;
+    private int size;
+
+    private BagFlags() {
+        allocate(MIN_BITS);
+    }
+
+    /**
+     * @param osm the primitive
+     * @return the flags of the primitive
+     */
+    public static int get(OsmPrimitive osm) {
+        DataSet ds = osm.getDataSet();
+        BagFlags cache = null;
+        if (ds != null) {
+            synchronized (caches) {
+                cache = caches.get(ds);
+            }
+        }
+        return cache == null ? compute(osm) : cache.lookup(osm);
+    }
+
+    /**
+     * @param osm the primitive
+     * @param flags the flags to test
+     * @return true if the primitive has all flags
+     */
+    public static boolean has(OsmPrimitive osm, int flags) {
+        return (get(osm) & flags) == flags;
+    }
+
+    /**
+     * @param osm the primitive
+     * @param flags the flags to test
+     * @return true if the primitive has at least one of the flags
+     */
+    public static boolean hasAny(OsmPrimitive osm, int flags) {
+        return (get(osm) & flags) != 0;
+    }
+
+    /**
+     * Start caching the flags of a data set, until {@link #remove(DataSet)} is called.
+     * @param ds the data set
+     */
+    public static void add(DataSet ds) {
+        synchronized (caches) {
+            if (caches.containsKey(ds)) {
+                return;
+            }
+            BagFlags cache = new BagFlags();
+            ds.addDataSetListener(cache.adapter);
+            caches.put(ds, cache);
+        }
+    }
+
+    /**
+     * Stop caching the flags of a data set.
+     * @param ds the data set
+     */
+    public static void remove(DataSet ds) {
+        BagFlags cache;
+        synchronized (caches) {
+            cache = caches.remove(ds);
+        }
+        if (cache != null) {
+            ds.removeDataSetListener(cache.adapter);
+        }
+    }
+
+    static int compute(OsmPrimitive osm) {
+        int flags = 0;
+        if (!osm.hasKeys()) {
+            return flags;
+        }
+        if (BagUtils.isTaggedAsBagObject(osm)) {
+            flags |= BAG_OBJECT;
+        }
+        if (osm.hasKey(BagUtils.REF_BAG_OLD)) {
+            flags |= REF_BAG_OLD;
+        }
+        if (BagUtils.isStaticCaravan(osm)) {
+            flags |= STATIC_CARAVAN;
+        }
+        if (BagUtils.hasNoteBag(osm)) {
+            flags |= NOTE_BAG;
+        }
+        if (BagUtils.isConstruction(osm)) {
+            flags |= CONSTRUCTION;
+        }
+        if (BagUtils.isBuilding(osm)) {
+            flags |= BUILDING;
+        }
+        if (BagUtils.hasStartDate(osm)) {
+            flags |= START_DATE;
+        }
+        if (BagUtils.hasSource(osm)) {
+            flags |= SOURCE;
+        }
+        if (BagUtils.hasSourceDate(osm)) {
+            flags |= SOURCE_DATE;
+        }
+        return flags;
+    }
+
+    private void allocate(int bits) {
+        keys = new OsmPrimitive[1 << bits];
+        values = new short[1 << bits];
+        shift = 32 - bits;
+        mask = (1 << bits) - 1;
+    }
+
+    private int hash(OsmPrimitive key) {
+        return (System.identityHashCode(key) * 0x9E3779B9) >>> shift;
+    }
+
+    private int slot(OsmPrimitive key) {
+        int i = hash(key);
+        while (keys[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private synchronized int lookup(OsmPrimitive osm) {
+        int i = slot(osm);
+        if (keys[i] == osm) {
+            return values[i];
+        }
+        int flags = compute(osm);
+        keys[i] = osm;
+        values[i] = (short) flags;
+        if (++size > (mask + 1) >> 1) {
+            grow();
+        }
+        return flags;
+    }
+
+    private synchronized void invalidate(OsmPrimitive osm) {
+        int hole = slot(osm);
+        if (keys[hole] == null) {
+            return;
+        }
+        // shift back following entries of the same probe sequence
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            OsmPrimitive key = keys[i];
+            if (key == null) {
+                break;
+            }
+            int home = hash(key);
+            boolean movable = i > hole ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                keys[hole] = key;
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = null;
+        size--;
+    }
+
+    private synchronized void clear() {
+        allocate(MIN_BITS);
+        size = 0;
+    }
+
+    private void grow() {
+        OsmPrimitive[] oldKeys = keys;
+        short[] oldValues = values;
+        allocate(33 - shift);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    @Override
+    public void processDatasetEvent(AbstractDatasetChangedEvent event) {
+        if (event instanceof DataChangedEvent) {
+            clear();
+        } else if (event instanceof TagsChangedEvent || event instanceof PrimitivesRemovedEvent) {
+            for (OsmPrimitive osm : event.getPrimitives()) {
+                invalidate(osm);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+
+/**
+ * Builds the ref:bag index of a list of primitives on a fork join pool.
+ * The list is split into chunks which are indexed independently. The partial indexes are collected
+ * and merged once at the end, so each primitive is copied only once.
+ * Each chunk reports its progress when done, and chunks are skipped once the monitor is canceled.
+ */
+class BagIndexTask extends RecursiveTask<List<BagValidationData>> {
+    static final int CHUNK_SIZE = 20_000;
+
+    private final List<? extends OsmPrimitive> primitives;
+    private final IntPredicate partitions;
+    private final ProgressMonitor monitor;
+    private final int from;
+    private final int to;
+
+    /**
+     * Index the primitives on the common fork join pool.
+     * @param primitives the primitives to index
+     * @param partitions the partitions to index, null for all
+     * @param monitor the monitor to report the number of indexed primitives to, its ticks count must be set
+     * @return the index, incomplete if the monitor was canceled
+     */
+    static BagValidationData index(List<? extends OsmPrimitive> primitives, IntPredicate partitions, ProgressMonitor monitor) {
+        List<BagValidationData> parts = ForkJoinPool.commonPool().invoke(
+                new BagIndexTask(primitives, partitions, monitor, 0, primitives.size()));
+        BagValidationData data = parts.get(0);
+        for (int i = 1; i < parts.size(); i++) {
+            data.addAll(parts.get(i));
+        }
+        return data;
+    }
+
+    private BagIndexTask(List<? extends OsmPrimitive> primitives, IntPredicate partitions, ProgressMonitor monitor,
+            int from, int to) {
+        this.primitives = primitives;
+        this.partitions = partitions;
+        this.monitor = monitor;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected List<BagValidationData> compute() {
+        if (to - from <= CHUNK_SIZE) {
+            BagValidationData data = new BagValidationData(partitions);
+            List<BagValidationData> parts = new ArrayList<>(1);
+            parts.add(data);
+            if (monitor.isCanceled()) {
+                return parts;
+            }
+            for (int i = from; i < to; i++) {
+                OsmPrimitive osm = primitives.get(i);
+                if (DataSetBagIndex.isIndexed(osm)) {
+                    data.add(osm);
+                }
+            }
+            // the monitor is shared by the worker threads
+            synchronized (monitor) {
+                monitor.worked(to - from);
+            }
+            return parts;
+        }
+        int mid = (from + to) >>> 1;
+        BagIndexTask left = new BagIndexTask(primitives, partitions, monitor, from, mid);
+        left.fork();
+        List<BagValidationData> right = new BagIndexTask(primitives, partitions, monitor, mid, to).compute();
+        List<BagValidationData> parts = left.join();
+        parts.addAll(right);
+        return parts;
+    }
+}
@@ -0,0 +1,509 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerAddEvent;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerChangeListener;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerOrderChangeEvent;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerRemoveEvent;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.spi.preferences.Config;
+
+/**
+ * Compares the OSM layer with the BAG open data layer by ref:bag. The OSM objects are put in a
+ * {@link RefBagIndex} which is probed with the open data objects, so a run is linear in the number of objects.
+ * <p>
+ * Objects are compared by fingerprints of their tags and geometry. The fingerprints are cached and
+ * dropped when an object is edited, so a run after some edits only hashes the touched objects again.
+ * Objects outside the downloaded area of the other layer are left out, they are not new or removed.
+ */
+public class BagLayerJoin implements DataSetListenerAdapter.Listener {
+    /** Preference to compare the layers after each load_bag download */
+    public static final String PREF_AFTER_DOWNLOAD = "nl_bag.join.after_download";
+    /** Preference with the keys to compare */
+    public static final String PREF_KEYS = "nl_bag.join.keys";
+    public static final List<String> DEFAULT_KEYS = Collections.unmodifiableList(Arrays.asList(
+            BagUtils.BUILDING, BagUtils.CONSTRUCTION, BagUtils.START_DATE,
+            "addr:street", "addr:housenumber", "addr:postcode", "addr:city"));
+    // coordinates are hashed in steps of about 10 cm, and compared with the same tolerance
+    private static final double PRECISION = 1e-6;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static BagLayerJoin instance;
+
+    /** Classification of a BAG object */
+    public enum Status {
+        /** only in the open data layer */
+        NEW,
+        /** same tags and geometry */
+        UNCHANGED,
+        /** same geometry, other tags */
+        TAG_CHANGED,
+        /** other geometry, the tags may be changed as well */
+        GEOMETRY_CHANGED,
+        /** only in the OSM layer */
+        REMOVED
+    }
+
+    /**
+     * A classified BAG object.
+     */
+    public static final class Match {
+        private final Status status;
+        private final long refBag;
+        private final OsmPrimitive osm;
+        private final OsmPrimitive openData;
+        private final boolean tagChanged;
+
+        Match(Status status, long refBag, OsmPrimitive osm, OsmPrimitive openData, boolean tagChanged) {
+            this.status = status;
+            this.refBag = refBag;
+            this.osm = osm;
+            this.openData = openData;
+            this.tagChanged = tagChanged;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getRefBag() {
+            return refBag;
+        }
+
+        /**
+         * @return the object in the OSM layer, null if {@link Status#NEW}
+         */
+        public OsmPrimitive getOsm() {
+            return osm;
+        }
+
+        /**
+         * @return the object in the open data layer, null if {@link Status#REMOVED}
+         */
+        public OsmPrimitive getOpenData() {
+            return openData;
+        }
+
+        /**
+         * @return true if the compared tags differ, also for {@link Status#GEOMETRY_CHANGED}
+         */
+        public boolean isTagChanged() {
+            return tagChanged;
+        }
+    }
+
+    /**
+     * The classified objects of one run.
+     */
+    public static final class Result {
+        private final Map<Status, List<Match>> matches = new EnumMap<>(Status.class);
+        private int hashed;
+
+        Result() {
+            for (Status status : Status.values()) {
+                matches.put(status, new ArrayList<>());
+            }
+        }
+
+        void add(Match match) {
+            matches.get(match.getStatus()).add(match);
+        }
+
+        public List<Match> get(Status status) {
+            return Collections.unmodifiableList(matches.get(status));
+        }
+
+        public int getCount(Status status) {
+            return matches.get(status).size();
+        }
+
+        /**
+         * @return the number of fingerprints computed in the run, the others were cached
+         */
+        public int getHashed() {
+            return hashed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Status status : Status.values()) {
+                sb.append(sb.length() == 0 ? "" : ", ").append(status.name().toLowerCase()).append(' ').append(getCount(status));
+            }
+            return sb.append(", hashed ").append(hashed).toString();
+        }
+    }
+
+    private final DataSet osmData;
+    private final DataSet openData;
+    private final List<String> keys;
+    private final DataSetListenerAdapter adapter = new DataSetListenerAdapter(this);
+    private final Map<OsmPrimitive, Long> tagPrints = new IdentityHashMap<>();
+    private final Map<OsmPrimitive, Long> geometryPrints = new IdentityHashMap<>();
+    private int hashed;
+
+    /**
+     * @param osmData the OSM data
+     * @param openData the BAG open data
+     */
+    public BagLayerJoin(DataSet osmData, DataSet openData) {
+        this.osmData = osmData;
+        this.openData = openData;
+        this.keys = Config.getPref().getList(PREF_KEYS, DEFAULT_KEYS);
+        osmData.addDataSetListener(adapter);
+        openData.addDataSetListener(adapter);
+    }
+
+    /**
+     * Get the join of two layers, keeping the cached fingerprints if the layers are the same as before.
+     * @param osmData the OSM data
+     * @param openData the BAG open data
+     * @return the join
+     */
+    public static synchronized BagLayerJoin getInstance(DataSet osmData, DataSet openData) {
+        if (instance == null || instance.osmData != osmData || instance.openData != openData) {
+            if (instance != null) {
+                instance.dispose();
+            }
+            instance = new BagLayerJoin(osmData, openData);
+        }
+        return instance;
+    }
+
+    /**
+     * Dispose the join kept by {@link #getInstance(DataSet, DataSet)} if it uses a data set.
+     * @param ds the data set
+     */
+    public static synchronized void removeInstance(DataSet ds) {
+        if (instance != null && (instance.osmData == ds || instance.openData == ds)) {
+            instance.dispose();
+            instance = null;
+        }
+    }
+
+    /**
+     * Dispose the kept join when one of its layers is removed.
+     */
+    public static void registerLayerListener() {
+        MainApplication.getLayerManager().addLayerChangeListener(new LayerChangeListener() {
+            @Override
+            public void layerAdded(LayerAddEvent e) {
+                // join is created after a download
+            }
+
+            @Override
+            public void layerRemoving(LayerRemoveEvent e) {
+                if (e.getRemovedLayer() instanceof OsmDataLayer) {
+                    removeInstance(((OsmDataLayer) e.getRemovedLayer()).getDataSet());
+                }
+            }
+
+            @Override
+            public void layerOrderChanged(LayerOrderChangeEvent e) {
+                // nothing to do
+            }
+        });
+    }
+
+    /**
+     * Stop listening to the data sets and drop the cached fingerprints.
+     */
+    public void dispose() {
+        osmData.removeDataSetListener(adapter);
+        openData.removeDataSetListener(adapter);
+        synchronized (this) {
+            tagPrints.clear();
+            geometryPrints.clear();
+        }
+    }
+
+    /**
+     * Classify all BAG objects of both layers.
+     * @return the classified objects
+     */
+    public Result join() {
+        // take the data set locks before the monitor, events are fired by the writing thread
+        osmData.getReadLock().lock();
+        openData.getReadLock().lock();
+        try {
+            synchronized (this) {
+                return doJoin();
+            }
+        } finally {
+            openData.getReadLock().unlock();
+            osmData.getReadLock().unlock();
+        }
+    }
+
+    private Result doJoin() {
+        hashed = 0;
+        Result result = new Result();
+        Area osmArea = osmData.getDataSourceArea();
+        Area openDataArea = openData.getDataSourceArea();
+
+        // build side
+        RefBagIndex index = new RefBagIndex();
+        for (OsmPrimitive osm : osmData.allPrimitives()) {
+            long key = getRefBag(osm);
+            if (key >= 0) {
+                index.add(key, osm);
+            }
+        }
+        // probe side, the probed keys are kept to find the removed objects
+        RefBagIndex probed = new RefBagIndex();
+        for (OsmPrimitive od : openData.allPrimitives()) {
+            long key = getRefBag(od);
+            if (key < 0) {
+                continue;
+            }
+            probed.add(key, od);
+            List<OsmPrimitive> candidates = index.getAll(key);
+            if (candidates.isEmpty()) {
+                if (isInside(osmArea, od)) {
+                    result.add(new Match(Status.NEW, key, null, od, false));
+                }
+                continue;
+            }
+            // duplicates in the OSM layer are left to the duplicate BAG check, match the best one
+            OsmPrimitive osm = candidates.get(0);
+            for (int i = 1; i < candidates.size() && getGeometryPrint(osm) != getGeometryPrint(od); i++) {
+                osm = candidates.get(i);
+            }
+            result.add(classify(key, osm, od));
+        }
+        index.forEach((key, osm) -> {
+            if (probed.get(key) == null && isInside(openDataArea, osm)) {
+                result.add(new Match(Status.REMOVED, key, osm, null, false));
+            }
+        });
+        result.hashed = hashed;
+        return result;
+    }
+
+    private Match classify(long key, OsmPrimitive osm, OsmPrimitive od) {
+        boolean tagChanged = getTagPrint(osm) != getTagPrint(od);
+        boolean geometryChanged = getGeometryPrint(osm) != getGeometryPrint(od) && !isSameGeometry(osm, od);
+        Status status = geometryChanged ? Status.GEOMETRY_CHANGED : tagChanged ? Status.TAG_CHANGED : Status.UNCHANGED;
+        return new Match(status, key, osm, od, tagChanged);
+    }
+
+    private static long getRefBag(OsmPrimitive osm) {
+        if (osm.isDeleted() || osm.isIncomplete() || !BagUtils.isTaggedAsBagObject(osm)) {
+            return -1;
+        }
+        return BagUtils.parseRefBag(osm.get(BagUtils.REF_BAG));
+    }
+
+    private static boolean isInside(Area area, OsmPrimitive osm) {
+        if (area == null) {
+            return true;
+        }
+        BBox bbox = osm.getBBox();
+        return area.contains((bbox.getMinLon() + bbox.getMaxLon()) / 2, (bbox.getMinLat() + bbox.getMaxLat()) / 2);
+    }
+
+    private long getTagPrint(OsmPrimitive osm) {
+        Long print = tagPrints.get(osm);
+        if (print == null) {
+            long hash = FNV_OFFSET;
+            for (String key : keys) {
+                String value = osm.get(key);
+                // a missing value differs from an empty one
+                hash = hash(hash, value == null ? -1 : value.length());
+                if (value != null) {
+                    for (int i = 0; i < value.length(); i++) {
+                        hash = hash(hash, value.charAt(i));
+                    }
+                }
+            }
+            print = hash;
+            tagPrints.put(osm, print);
+            hashed++;
+        }
+        return print;
+    }
+
+    private long getGeometryPrint(OsmPrimitive osm) {
+        Long print = geometryPrints.get(osm);
+        if (print == null) {
+            if (osm instanceof Node) {
+                print = hashNode(FNV_OFFSET, (Node) osm);
+            } else if (osm instanceof Way) {
+                print = hashWay((Way) osm);
+            } else {
+                print = hashRelation((Relation) osm);
+            }
+            geometryPrints.put(osm, print);
+            hashed++;
+        }
+        return print;
+    }
+
+    private static long hashNode(long hash, Node node) {
+        if (!node.isLatLonKnown()) {
+            return hash(hash, Long.MIN_VALUE);
+        }
+        return hash(hash(hash, Math.round(node.lat() / PRECISION)), Math.round(node.lon() / PRECISION));
+    }
+
+    private static long hashWay(Way way) {
+        List<Node> nodes = way.getNodes();
+        int n = nodes.size();
+        if (!way.isClosed() || n < 4) {
+            long hash = FNV_OFFSET;
+            for (Node node : nodes) {
+                hash = hashNode(hash, node);
+            }
+            return hash;
+        }
+        // a ring may start at any node and run in either direction, start at the lowest node
+        n--;
+        int start = 0;
+        for (int i = 1; i < n; i++) {
+            if (compare(nodes.get(i), nodes.get(start)) < 0) {
+                start = i;
+            }
+        }
+        int step = compare(nodes.get((start + 1) % n), nodes.get((start + n - 1) % n)) <= 0 ? 1 : n - 1;
+        long hash = hash(FNV_OFFSET, n);
+        for (int i = 0, j = start; i < n; i++, j = (j + step) % n) {
+            hash = hashNode(hash, nodes.get(j));
+        }
+        return hash;
+    }
+
+    private long hashRelation(Relation relation) {
+        // the order of the members is not significant, member relations are left out
+        long sum = 0;
+        for (RelationMember member : relation.getMembers()) {
+            OsmPrimitive osm = member.getMember();
+            if (!(osm instanceof Relation)) {
+                long hash = FNV_OFFSET;
+                for (int i = 0; i < member.getRole().length(); i++) {
+                    hash = hash(hash, member.getRole().charAt(i));
+                }
+                sum += hash(hash, getGeometryPrint(osm));
+            }
+        }
+        return sum;
+    }
+
+    private static int compare(Node a, Node b) {
+        int result = Long.compare(Math.round(a.lat() / PRECISION), Math.round(b.lat() / PRECISION));
+        return result != 0 ? result : Long.compare(Math.round(a.lon() / PRECISION), Math.round(b.lon() / PRECISION));
+    }
+
+    private static long hash(long hash, long value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * Compare geometries with the tolerance of the fingerprints, as values close to a rounding
+     * boundary can end up in different steps.
+     */
+    private static boolean isSameGeometry(OsmPrimitive a, OsmPrimitive b) {
+        if (a instanceof Node && b instanceof Node) {
+            return isSameLocation((Node) a, (Node) b);
+        }
+        if (!(a instanceof Way) || !(b instanceof Way)) {
+            return false;
+        }
+        List<Node> nodesA = ((Way) a).getNodes();
+        List<Node> nodesB = ((Way) b).getNodes();
+        int n = nodesA.size();
+        if (n != nodesB.size() || n == 0 || ((Way) a).isClosed() != ((Way) b).isClosed()) {
+            return false;
+        }
+        if (!((Way) a).isClosed()) {
+            return isSameSequence(nodesA, nodesB, 0, 1, n) || isSameSequence(nodesA, nodesB, n - 1, n - 1, n);
+        }
+        n--;
+        for (int start = 0; start < n; start++) {
+            if (isSameLocation(nodesA.get(0), nodesB.get(start))
+                    && (isSameSequence(nodesA, nodesB, start, 1, n) || isSameSequence(nodesA, nodesB, start, n - 1, n))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSameSequence(List<Node> nodesA, List<Node> nodesB, int start, int step, int n) {
+        for (int i = 0, j = start; i < n; i++, j = (j + step) % n) {
+            if (!isSameLocation(nodesA.get(i), nodesB.get(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSameLocation(Node a, Node b) {
+        return a.isLatLonKnown() && b.isLatLonKnown()
+                && Math.abs(a.lat() - b.lat()) <= PRECISION && Math.abs(a.lon() - b.lon()) <= PRECISION;
+    }
+
+    @Override
+    public synchronized void processDatasetEvent(AbstractDatasetChangedEvent event) {
+        if (event instanceof DataChangedEvent) {
+            List<AbstractDatasetChangedEvent> events = ((DataChangedEvent) event).getEvents();
+            if (events == null) {
+                tagPrints.clear();
+                geometryPrints.clear();
+            } else {
+                for (AbstractDatasetChangedEvent e : events) {
+                    processDatasetEvent(e);
+                }
+            }
+        } else if (event instanceof TagsChangedEvent) {
+            for (OsmPrimitive osm : event.getPrimitives()) {
+                tagPrints.remove(osm);
+            }
+        } else if (event instanceof NodeMovedEvent) {
+            invalidateGeometry(((NodeMovedEvent) event).getNode());
+        } else if (event instanceof WayNodesChangedEvent) {
+            invalidateGeometry(((WayNodesChangedEvent) event).getChangedWay());
+        } else if (event instanceof RelationMembersChangedEvent) {
+            invalidateGeometry(((RelationMembersChangedEvent) event).getRelation());
+        } else if (event instanceof PrimitivesRemovedEvent) {
+            for (OsmPrimitive osm : event.getPrimitives()) {
+                tagPrints.remove(osm);
+                invalidateGeometry(osm);
+            }
+        }
+    }
+
+    private void invalidateGeometry(OsmPrimitive osm) {
+        geometryPrints.remove(osm);
+        // relations don't include member relations, so this ends at the first relation
+        if (!(osm instanceof Relation)) {
+            for (OsmPrimitive referrer : osm.getReferrers()) {
+                invalidateGeometry(referrer);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonWriter;
+
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Lightweight counters, timers and histograms of the plug-in.
+ * The values can be read with the {@code nl_bag_metrics} remote control command and are
+ * appended to {@code nl_bag/metrics.log} in the user data directory if {@link #PREF_LOG} is set.
+ */
+public final class BagMetrics {
+    /** Preference to append the metrics to a log file after each validation run and download */
+    public static final String PREF_LOG = "nl_bag.metrics.log";
+
+    public static final String VALIDATION_RUN = "validation.duplicate_bag.run";
+    public static final String VALIDATION_END_TEST = "validation.duplicate_bag.end_test";
+    public static final String VALIDATION_VISITED = "validation.duplicate_bag.visited";
+    public static final String VALIDATION_DUPLICATES = "validation.duplicate_bag.duplicates";
+    public static final String VALIDATION_GROUP_SIZE = "validation.duplicate_bag.group_size";
+    public static final String FIXER_RUN = "fixer.run";
+    public static final String FIXER_BATCH_RUN = "fixer.batch_run";
+    public static final String FIXER_FIXED = "fixer.fixed";
+    public static final String FIXER_SKIPPED = "fixer.skipped";
+    public static final String UPLOAD_HOOK_RUN = "upload_hook.run";
+    public static final String UPLOAD_HOOK_UPDATED = "upload_hook.updated";
+    public static final String DOWNLOAD_RUN = "download.run";
+    public static final String DOWNLOAD_BOUNDS = "download.bounds";
+    public static final String DOWNLOAD_FAILED = "download.failed";
+    public static final String PREFETCH_RUN = "prefetch.run";
+    public static final String PREFETCH_FAILED = "prefetch.failed";
+    public static final String PREFETCH_HIT = "prefetch.hit";
+    public static final String PREFETCH_MISS = "prefetch.miss";
+    public static final String PREFETCH_EVICTED = "prefetch.evicted";
+    public static final String PREFETCH_EXPIRED = "prefetch.expired";
+    public static final String PREFETCH_INVALIDATED = "prefetch.invalidated";
+    public static final String JOIN_RUN = "join.run";
+    public static final String JOIN_HASHED = "join.hashed";
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    // keeps file access out of validation runs and downloads
+    private static final ExecutorService LOG_WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "nl_bag-metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private BagMetrics() {
+        // Hide default constructor
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Reset all metrics.
+     */
+    public static void reset() {
+        counters.clear();
+        histograms.clear();
+        timers.clear();
+    }
+
+    /**
+     * @return all metrics as JSON, timer values in milliseconds
+     */
+    public static JsonObject toJson() {
+        JsonObjectBuilder counterValues = Json.createObjectBuilder();
+        new TreeMap<>(counters).forEach((name, c) -> counterValues.add(name, c.get()));
+        JsonObjectBuilder histogramValues = Json.createObjectBuilder();
+        new TreeMap<>(histograms).forEach((name, h) -> histogramValues.add(name, h.toJson(1)));
+        JsonObjectBuilder timerValues = Json.createObjectBuilder();
+        new TreeMap<>(timers).forEach((name, t) -> timerValues.add(name, t.histogram.toJson(TimeUnit.MILLISECONDS.toNanos(1))));
+        return Json.createObjectBuilder()
+                .add("time", Instant.now().toString())
+                .add("counters", counterValues)
+                .add("histograms", histogramValues)
+                .add("timers", timerValues)
+                .build();
+    }
+
+    /**
+     * Append the metrics as one JSON line to the metrics log, if enabled.
+     * The metrics are read at once, the file is written in the background.
+     */
+    public static void dumpIfEnabled() {
+        if (!Config.getPref().getBoolean(PREF_LOG, false)) {
+            return;
+        }
+        JsonObject metrics = toJson();
+        LOG_WRITER.execute(() -> write(metrics));
+    }
+
+    private static void write(JsonObject metrics) {
+        File logFile = new File(Config.getDirs().getUserDataDirectory(true), "nl_bag/metrics.log");
+        try {
+            Files.createDirectories(logFile.getParentFile().toPath());
+            try (Writer writer = Files.newBufferedWriter(logFile.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    JsonWriter jsonWriter = Json.createWriter(writer)) {
+                jsonWriter.writeObject(metrics);
+                writer.write(System.lineSeparator());
+            }
+        } catch (IOException e) {
+            Logging.warn("NL-BAG metrics not written: " + e.getMessage());
+        }
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Histogram of non-negative values with power of two buckets.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            long v = Math.max(0, value);
+            // bucket b holds values up to 2^b - 1
+            buckets.incrementAndGet(Math.min(Long.SIZE - 1, Long.SIZE - Long.numberOfLeadingZeros(v)));
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @param p the percentile, between 0 and 1
+         * @return the upper bound of the bucket containing the percentile, 0 if empty
+         */
+        public long getPercentile(double p) {
+            long n = count.sum();
+            long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int b = 0; b < Long.SIZE; b++) {
+                seen += buckets.get(b);
+                if (seen > 0 && seen >= rank) {
+                    return Math.min(max.get(), (1L << b) - 1);
+                }
+            }
+            return max.get();
+        }
+
+        JsonObjectBuilder toJson(long unit) {
+            long n = count.sum();
+            return Json.createObjectBuilder()
+                    .add("count", n)
+                    .add("mean", n == 0 ? 0 : (double) sum.sum() / n / unit)
+                    .add("p50", (double) getPercentile(0.5) / unit)
+                    .add("p90", (double) getPercentile(0.9) / unit)
+                    .add("p99", (double) getPercentile(0.99) / unit)
+                    .add("max", (double) max.get() / unit);
+        }
+    }
+
+    /**
+     * Records durations in nanoseconds.
+     * <pre>
+     * long start = timer.start();
+     * ...
+     * timer.stop(start);
+     * </pre>
+     */
+    public static final class Timer {
+        private final Histogram histogram = new Histogram();
+
+        public long start() {
+            return System.nanoTime();
+        }
+
+        public void stop(long start) {
+            histogram.record(System.nanoTime() - start);
+        }
+
+        public Histogram getHistogram() {
+            return histogram;
+        }
+    }
+}
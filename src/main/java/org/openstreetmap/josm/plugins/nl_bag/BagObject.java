@@ -5,32 +5,54 @@ import java.util.Objects;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 
 public class BagObject {
-    private final String refBAG;
-    private final String refBAGold;
+    // numeric ref:bag values, -1 if missing or not a number
+    private final long refBAG;
+    private final long refBAGold;
+    // normalized text, only kept for values which are not a number
+    private final String otherRefBAG;
+    private final String otherRefBAGold;
 
     public BagObject(OsmPrimitive p) {
-        this.refBAG = BagUtils.normalizeRefBag(p);
-        this.refBAGold = BagUtils.normalizeRefBagOld(p);
+        String rb = p.get(BagUtils.REF_BAG);
+        String rbOld = p.get(BagUtils.REF_BAG_OLD);
+        this.refBAG = BagUtils.parseRefBag(rb);
+        this.refBAGold = BagUtils.parseRefBag(rbOld);
+        this.otherRefBAG = refBAG < 0 ? BagUtils.normalizeRefBag(rb) : null;
+        this.otherRefBAGold = refBAGold < 0 ? BagUtils.normalizeRefBag(rbOld) : null;
     }
 
     public String getRefBAG() {
+        return refBAG < 0 ? otherRefBAG : BagUtils.formatRefBag(refBAG);
+    }
+
+    /**
+     * @return the numeric ref:bag, -1 if missing or not a number
+     */
+    public long getRefBAGValue() {
         return refBAG;
     }
 
+    private static boolean isSame(long value1, String other1, long value2, String other2) {
+        if (value1 >= 0) {
+            return value1 == value2;
+        }
+        return other1 != null && Objects.equals(other1, other2);
+    }
+
     @Override
     public boolean equals(Object other) {
         if (other == null || !(other instanceof BagObject)) {
             return false;
         }
         BagObject a = (BagObject) other;
-        return Objects.equals(a.refBAG, refBAG) || 
-        		Objects.equals(a.refBAGold, refBAG) || 
-        		Objects.equals(a.refBAG, refBAGold) ||
-        		Objects.equals(a.refBAGold, refBAGold);
+        return isSame(a.refBAG, a.otherRefBAG, refBAG, otherRefBAG) ||
+        		isSame(a.refBAGold, a.otherRefBAGold, refBAG, otherRefBAG) ||
+        		isSame(a.refBAG, a.otherRefBAG, refBAGold, otherRefBAGold) ||
+        		isSame(a.refBAGold, a.otherRefBAGold, refBAGold, otherRefBAGold);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(refBAG);
+        return refBAG < 0 ? Objects.hashCode(otherRefBAG) : Long.hashCode(refBAG);
     }
 }
@@ -2,13 +2,16 @@ package org.openstreetmap.josm.plugins.nl_bag;
 
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 
+/**
+ * View of a primitive in a duplicate group. The {@link BagObject} with the parsed ref:bag values
+ * is only created when it is asked for, the validation itself only needs the primitive.
+ */
 public class BagObjectOsmPrimitive {
     private final OsmPrimitive osmprimitive;
-    private final BagObject bagobject;
+    private BagObject bagobject;
 
     public BagObjectOsmPrimitive(OsmPrimitive osmprimitive) {
         this.osmprimitive = osmprimitive;
-        this.bagobject = new BagObject(osmprimitive);
     }
 
     public OsmPrimitive getOsmPrimitive() {
@@ -16,6 +19,10 @@ public class BagObjectOsmPrimitive {
     }
 
     public BagObject getBAGObject() {
+        // BagObject is immutable, creating it twice in a race is harmless
+        if (bagobject == null) {
+            bagobject = new BagObject(osmprimitive);
+        }
         return bagobject;
     }
 
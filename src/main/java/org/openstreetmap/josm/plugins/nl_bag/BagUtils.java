@@ -1,9 +1,10 @@
 package org.openstreetmap.josm.plugins.nl_bag;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 
@@ -22,6 +23,10 @@ public class BagUtils {
     public final static String STATIC_CARAVAN = "static_caravan";
 
     public final static String DATE_FORMAT = "yyyy-MM-dd";
+    public final static int INVALID_DATE = Integer.MIN_VALUE;
+
+    private final static int DATE_CACHE_SIZE = 1024;
+    private final static Map<String, Integer> dateCache = new ConcurrentHashMap<>();
 
     public static boolean isTaggedAsBagObject(OsmPrimitive osm) {
         return osm.hasKey(REF_BAG);
@@ -36,24 +41,75 @@ public class BagUtils {
     }
     
     public static String normalizeRefBag(String rb) {
+        if (rb == null || rb.length() >= 16) {
+            return rb;
+        }
+        long value = parseRefBag(rb);
     	// add leading 0's which were previously removed
-        return rb == null ? null : StringUtils.leftPad(rb, 16, "0");
+        return value >= 0 ? formatRefBag(value) : StringUtils.leftPad(rb, 16, "0");
+    }
+
+    /**
+     * Compare two ref:bag values, ignoring leading 0's.
+     * Numeric values are compared without creating normalized copies.
+     * @param rb1 the first ref:bag, may be null
+     * @param rb2 the second ref:bag, may be null
+     * @return true if both values refer to the same BAG object
+     */
+    public static boolean isSameRefBag(String rb1, String rb2) {
+        if (rb1 == null || rb2 == null) {
+            return rb1 == rb2;
+        }
+        long value1 = parseRefBag(rb1);
+        long value2 = parseRefBag(rb2);
+        if (value1 >= 0 || value2 >= 0) {
+            return value1 == value2;
+        }
+        return normalizeRefBag(rb1).equals(normalizeRefBag(rb2));
+    }
+
+    /**
+     * Parse a ref:bag value to its numeric value.
+     * @param rb the ref:bag value, may be null
+     * @return the number, or -1 if the value is not a number of at most 16 digits
+     */
+    public static long parseRefBag(String rb) {
+        if (rb == null || rb.isEmpty() || rb.length() > 16) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < rb.length(); i++) {
+            char c = rb.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Format a numeric ref:bag as normalized 16 digit value.
+     * @param refBag the numeric ref:bag
+     * @return the ref:bag with leading 0's
+     */
+    public static String formatRefBag(long refBag) {
+        char[] digits = new char[16];
+        long value = refBag;
+        for (int i = digits.length - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(digits);
     }
     
     public static boolean hasSourceDate(OsmPrimitive osm) {
-   		return osm.hasKey(SOURCE_DATE) && isDateValid(osm.get(SOURCE_DATE));
+   		return isDateValid(osm.get(SOURCE_DATE));
     }
     
     public static boolean isDateValid(String date) 
     {
-        try {
-            DateFormat df = new SimpleDateFormat(DATE_FORMAT);
-            df.setLenient(false);
-            df.parse(date);
-            return true;
-        } catch (ParseException e) {
-            return false;
-        }
+        return parseDate(date) != INVALID_DATE;
     }
     
     public static Date getSourceDate(OsmPrimitive osm)
@@ -63,13 +119,85 @@ public class BagUtils {
     
     public static Date getDate(String date) 
     {
-        try {
-            DateFormat df = new SimpleDateFormat(DATE_FORMAT);
-            df.setLenient(false);
-            return df.parse(date);
-        } catch (ParseException e) {
+        int epochDay = parseDate(date);
+        if (epochDay == INVALID_DATE) {
             return null;
         }
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    /**
+     * @param osm the primitive
+     * @return the source:date as days since 1970-01-01, {@link #INVALID_DATE} if missing or invalid
+     */
+    public static int getSourceEpochDay(OsmPrimitive osm)
+    {
+        return parseDate(osm.get(SOURCE_DATE));
+    }
+
+    /**
+     * Parse a date in {@link #DATE_FORMAT} format.
+     * Results are cached, as the same few source:date values are used by many objects.
+     * @param date the date, may be null
+     * @return the date as days since 1970-01-01, {@link #INVALID_DATE} if missing or invalid
+     */
+    public static int parseDate(String date)
+    {
+        if (date == null) {
+            return INVALID_DATE;
+        }
+        Integer epochDay = dateCache.get(date);
+        if (epochDay == null) {
+            if (dateCache.size() >= DATE_CACHE_SIZE) {
+                dateCache.clear();
+            }
+            epochDay = parseEpochDay(date);
+            dateCache.put(date, epochDay);
+        }
+        return epochDay;
+    }
+
+    private static int parseEpochDay(String date)
+    {
+        if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            return INVALID_DATE;
+        }
+        int year = parseDigits(date, 0, 4);
+        int month = parseDigits(date, 5, 7);
+        int day = parseDigits(date, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > getMonthLength(year, month)) {
+            return INVALID_DATE;
+        }
+        // days from civil date, see http://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        // floor division, y is -1 for January and February of year 0
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int parseDigits(String s, int from, int to)
+    {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int getMonthLength(int year, int month)
+    {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
     }
     
     public static boolean isConstruction(OsmPrimitive osm) {
@@ -77,7 +205,8 @@ public class BagUtils {
     }
     
     public static boolean isBuilding(OsmPrimitive osm) {
-    	return osm.hasKey(BUILDING);
+    	String building = osm.get(BUILDING);
+    	return building != null && !"no".equals(building);
     }
     
     public static boolean hasStartDate(OsmPrimitive osm) {
@@ -1,34 +1,177 @@
 package org.openstreetmap.josm.plugins.nl_bag;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.IntPredicate;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
 
 public class BagValidationData {
-    private final Map<RefBagKey, BagObjectOsmPrimitive> refBagIndex = new HashMap<>();
-    private final Map<RefBagKey, Set<BagObjectOsmPrimitive>> duplicatesByRefBag = new HashMap<>();
+    private final PartitionedRefBagIndex refBagIndex = new PartitionedRefBagIndex();
+    // numeric ref:bag:old values, to find renumbered objects, in the partition of the ref:bag
+    private final PartitionedRefBagIndex oldRefBagIndex = new PartitionedRefBagIndex();
+    // ref:bag values which are not a number, compared as text
+    private final Map<String, List<OsmPrimitive>> otherRefBagIndex = new HashMap<>();
+    // partitions to index, null for all
+    private IntPredicate partitions;
+
+    public BagValidationData() {
+        this(null);
+    }
+
+    /**
+     * Create an index which only holds some partitions, see {@link PartitionedRefBagIndex#getPartition(int, int)}.
+     * Primitives with a ref:bag which is not a number are left out as well.
+     * @param partitions the partitions to index, null for all
+     */
+    public BagValidationData(IntPredicate partitions) {
+        this.partitions = partitions;
+    }
 
     public void clear() {
-    	refBagIndex.clear();
-    	duplicatesByRefBag.clear();
-    }
-
-    public void add(BagObjectOsmPrimitive bagobjectOsmPrimitive) {
-        RefBagKey refBagKey = new RefBagKey(bagobjectOsmPrimitive);
-        BagObjectOsmPrimitive existing = refBagIndex.put(refBagKey, bagobjectOsmPrimitive);
-        if (existing != null && existing != bagobjectOsmPrimitive) {
-            Set<BagObjectOsmPrimitive> duplicates = duplicatesByRefBag.get(refBagKey);
-            if (duplicates == null) {
-                duplicates = new HashSet<>();
-                duplicates.add(existing);
-                duplicatesByRefBag.put(refBagKey, duplicates);
+        refBagIndex.clear();
+        oldRefBagIndex.clear();
+        otherRefBagIndex.clear();
+    }
+
+    public void add(OsmPrimitive osm) {
+        String refBag = osm.get(BagUtils.REF_BAG);
+        long key = BagUtils.parseRefBag(refBag);
+        if (partitions != null && (key < 0 || !partitions.test(PartitionedRefBagIndex.getPartition(key)))) {
+            return;
+        }
+        if (key >= 0) {
+            refBagIndex.add(key, osm);
+        } else if (refBag != null) {
+            List<OsmPrimitive> sameKey = otherRefBagIndex.computeIfAbsent(BagUtils.normalizeRefBag(refBag), k -> new ArrayList<>(1));
+            if (!sameKey.contains(osm)) {
+                sameKey.add(osm);
+            }
+        }
+        long oldKey = BagUtils.parseRefBag(osm.get(BagUtils.REF_BAG_OLD));
+        if (oldKey >= 0) {
+            oldRefBagIndex.add(PartitionedRefBagIndex.getPartition(key), oldKey, osm);
+        }
+    }
+
+    /**
+     * Merge another (partial) index into this one.
+     * @param other the data to add
+     */
+    public void addAll(BagValidationData other) {
+        refBagIndex.addAll(other.refBagIndex);
+        oldRefBagIndex.addAll(other.oldRefBagIndex);
+        for (Entry<String, List<OsmPrimitive>> entry : other.otherRefBagIndex.entrySet()) {
+            List<OsmPrimitive> sameKey = otherRefBagIndex.computeIfAbsent(entry.getKey(), k -> new ArrayList<>(1));
+            for (OsmPrimitive osm : entry.getValue()) {
+                if (!sameKey.contains(osm)) {
+                    sameKey.add(osm);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a primitive which was previously added.
+     * @param refBag the ref:bag the primitive was added with, i.e. the value before the change
+     * @param refBagOld the ref:bag:old the primitive was added with
+     * @param osm the primitive to remove
+     */
+    public void remove(String refBag, String refBagOld, OsmPrimitive osm) {
+        long key = BagUtils.parseRefBag(refBag);
+        long oldKey = BagUtils.parseRefBag(refBagOld);
+        if (oldKey >= 0) {
+            oldRefBagIndex.remove(PartitionedRefBagIndex.getPartition(key), oldKey, osm);
+        }
+        if (key >= 0) {
+            refBagIndex.remove(key, osm);
+        } else if (refBag != null) {
+            String normalized = BagUtils.normalizeRefBag(refBag);
+            List<OsmPrimitive> sameKey = otherRefBagIndex.get(normalized);
+            if (sameKey != null && sameKey.remove(osm) && sameKey.isEmpty()) {
+                otherRefBagIndex.remove(normalized);
+            }
+        }
+    }
+
+    /**
+     * @return the number of indexed primitives by partition, see {@link PartitionedRefBagIndex#getPartition(int, int)}
+     */
+    public Map<Integer, Integer> getCounts() {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (Integer partition : refBagIndex.getPartitions()) {
+            counts.put(partition, refBagIndex.getEntryCount(partition));
+        }
+        return counts;
+    }
+
+    /**
+     * Limit the index to fewer partitions. The other partitions are discarded, which is cheaper than
+     * building a new index. Primitives with a ref:bag which is not a number are discarded as well.
+     * @param partitions the partitions to keep, must be a subset of the partitions indexed before
+     */
+    public void retainPartitions(IntPredicate partitions) {
+        this.partitions = partitions;
+        for (Integer partition : new ArrayList<>(refBagIndex.getPartitions())) {
+            if (!partitions.test(partition)) {
+                refBagIndex.removePartition(partition);
+            }
+        }
+        for (Integer partition : new ArrayList<>(oldRefBagIndex.getPartitions())) {
+            if (!partitions.test(partition)) {
+                oldRefBagIndex.removePartition(partition);
             }
-            duplicates.add(bagobjectOsmPrimitive);
         }
+        otherRefBagIndex.clear();
     }
 
+    /**
+     * Get the groups of duplicate objects: objects with the same ref:bag, and renumbered objects
+     * having the ref:bag of a nearby object as ref:bag:old.
+     * @return the duplicate primitives by ref:bag
+     */
     public Map<RefBagKey, Set<BagObjectOsmPrimitive>> getDuplicateRefBagOsmPrimitives() {
+        Map<RefBagKey, Set<BagObjectOsmPrimitive>> duplicatesByRefBag = getDuplicates(refBagIndex, oldRefBagIndex);
+        for (Entry<String, List<OsmPrimitive>> entry : otherRefBagIndex.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                duplicatesByRefBag.put(new RefBagKey(entry.getKey()), toBagObjects(entry.getValue()));
+            }
+        }
         return duplicatesByRefBag;
     }
+
+    /**
+     * Get the groups of duplicate objects within some partitions. Renumbered objects are only found
+     * if the old and the new ref:bag are in a selected partition, ref:bag values which are not a number are skipped.
+     * @param partitions the partitions to check, see {@link PartitionedRefBagIndex#getPartition(int, int)}
+     * @return the duplicate primitives by ref:bag
+     */
+    public Map<RefBagKey, Set<BagObjectOsmPrimitive>> getDuplicateRefBagOsmPrimitives(IntPredicate partitions) {
+        return getDuplicates(refBagIndex.select(partitions), oldRefBagIndex.select(partitions));
+    }
+
+    private static Map<RefBagKey, Set<BagObjectOsmPrimitive>> getDuplicates(PartitionedRefBagIndex refBags,
+            PartitionedRefBagIndex oldRefBags) {
+        Map<RefBagKey, Set<BagObjectOsmPrimitive>> duplicatesByRefBag = new HashMap<>();
+        Map<Long, List<OsmPrimitive>> duplicates = oldRefBags.getEntryCount() == 0
+                ? refBags.getDuplicates()
+                : new RefBagChainResolver(refBags, oldRefBags).resolve();
+        for (Entry<Long, List<OsmPrimitive>> entry : duplicates.entrySet()) {
+            duplicatesByRefBag.put(new RefBagKey(BagUtils.formatRefBag(entry.getKey())), toBagObjects(entry.getValue()));
+        }
+        return duplicatesByRefBag;
+    }
+
+    private static Set<BagObjectOsmPrimitive> toBagObjects(List<OsmPrimitive> osmprimitives) {
+        Set<BagObjectOsmPrimitive> bagObjects = new HashSet<>();
+        for (OsmPrimitive osm : osmprimitives) {
+            bagObjects.add(new BagObjectOsmPrimitive(osm));
+        }
+        return bagObjects;
+    }
 }
@@ -0,0 +1,110 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import static org.openstreetmap.josm.tools.I18n.trn;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+
+/**
+ * Change the value of one tag for many primitives as a single undoable command.
+ * The primitives with their old and new values and modified flags are kept in parallel arrays instead of one
+ * {@code ChangePropertyCommand} per primitive, which saves a copy of each primitive, so large batches keep
+ * a small undo stack.
+ */
+class ChangeTagBatchCommand extends Command {
+    private final String key;
+    private OsmPrimitive[] primitives = new OsmPrimitive[16];
+    private String[] oldValues = new String[16];
+    private String[] newValues = new String[16];
+    private final BitSet wasModified = new BitSet();
+    private int size;
+
+    /**
+     * @param ds the data set of the primitives
+     * @param key the tag key to change
+     */
+    ChangeTagBatchCommand(DataSet ds, String key) {
+        super(ds);
+        this.key = key;
+    }
+
+    /**
+     * Add a primitive to the batch. Must be called before the command is executed.
+     * @param osm the primitive
+     * @param newValue the new tag value
+     */
+    void add(OsmPrimitive osm, String newValue) {
+        if (size == primitives.length) {
+            int capacity = size * 2;
+            primitives = Arrays.copyOf(primitives, capacity);
+            oldValues = Arrays.copyOf(oldValues, capacity);
+            newValues = Arrays.copyOf(newValues, capacity);
+        }
+        primitives[size] = osm;
+        newValues[size] = newValue;
+        size++;
+    }
+
+    /**
+     * @return the number of primitives in the batch
+     */
+    int size() {
+        return size;
+    }
+
+    @Override
+    public boolean executeCommand() {
+        // only the changed tag and the modified flag are saved for undo, not the whole primitive
+        DataSet ds = getAffectedDataSet();
+        ds.beginUpdate();
+        try {
+            for (int i = 0; i < size; i++) {
+                OsmPrimitive osm = primitives[i];
+                oldValues[i] = osm.get(key);
+                wasModified.set(i, osm.isModified());
+                osm.put(key, newValues[i]);
+                osm.setModified(true);
+            }
+        } finally {
+            ds.endUpdate();
+        }
+        return true;
+    }
+
+    @Override
+    public void undoCommand() {
+        DataSet ds = getAffectedDataSet();
+        ds.beginUpdate();
+        try {
+            for (int i = 0; i < size; i++) {
+                OsmPrimitive osm = primitives[i];
+                osm.put(key, oldValues[i]);
+                osm.setModified(wasModified.get(i));
+            }
+        } finally {
+            ds.endUpdate();
+        }
+    }
+
+    @Override
+    public String getDescriptionText() {
+        return trn("Set {0} for {1} object", "Set {0} for {1} objects", size, key, size);
+    }
+
+    @Override
+    public void fillModifiedData(Collection<OsmPrimitive> modified, Collection<OsmPrimitive> deleted,
+            Collection<OsmPrimitive> added) {
+        modified.addAll(getParticipatingPrimitives());
+    }
+
+    @Override
+    public List<OsmPrimitive> getParticipatingPrimitives() {
+        return Arrays.asList(primitives).subList(0, size);
+    }
+}
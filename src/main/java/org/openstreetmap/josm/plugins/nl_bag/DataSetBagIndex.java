@@ -0,0 +1,422 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerAddEvent;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerChangeListener;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerOrderChangeEvent;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerRemoveEvent;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * ref:bag index bound to one {@link DataSet}.
+ * The index is built once and then kept up to date from the data set events,
+ * so a validation run only has to read the duplicates instead of re-indexing all primitives.
+ * <p>
+ * The events are queued and applied when the index is read, so editing never waits for a validation
+ * run in the background. The index is built from a copy of the primitives of the data set, the events
+ * during the build are applied afterwards.
+ * <p>
+ * If {@link #PREF_MUNICIPALITIES} is set, only the BAG objects of these municipalities are indexed.
+ * When municipalities are removed from the preference, their partitions are discarded, when
+ * municipalities are added the index is rebuilt.
+ */
+public class DataSetBagIndex implements DataSetListener {
+    /** Preference to index large data sets on multiple threads */
+    public static final String PREF_PARALLEL = "nl_bag.validation.parallel";
+    /** Preference with the municipality codes to limit the index of the edit layer to, empty to index all */
+    public static final String PREF_MUNICIPALITIES = "nl_bag.validation.municipalities";
+
+    private static final Map<DataSet, DataSetBagIndex> indexes = new HashMap<>();
+
+    // report progress and check for cancellation every 1024 primitives
+    private static final int PROGRESS_MASK = 1023;
+    // rebuild instead of applying more queued events than this
+    private static final int MAX_PENDING = 10_000;
+
+    private final DataSet dataSet;
+    private BagValidationData data = new BagValidationData();
+    // the municipalities the index was built for, null for all
+    private Set<Integer> municipalities;
+    private final Updater updater = new Updater();
+    // only accessed while holding the monitor of the index
+    private boolean valid;
+    // guarded by pending, events are only queued while the index is built or valid
+    private final List<AbstractDatasetChangedEvent> pending = new ArrayList<>();
+    private boolean tracking;
+    private boolean overflow;
+
+    private DataSetBagIndex(DataSet dataSet) {
+        this.dataSet = dataSet;
+    }
+
+    /**
+     * Get the index for a data set, registering a new one if needed.
+     * @param dataSet the data set
+     * @return the index of the data set
+     */
+    public static synchronized DataSetBagIndex getIndex(DataSet dataSet) {
+        DataSetBagIndex index = indexes.get(dataSet);
+        if (index == null) {
+            index = new DataSetBagIndex(dataSet);
+            dataSet.addDataSetListener(index);
+            indexes.put(dataSet, index);
+        }
+        return index;
+    }
+
+    /**
+     * Stop maintaining the index of a data set.
+     * @param dataSet the data set
+     */
+    public static synchronized void removeIndex(DataSet dataSet) {
+        DataSetBagIndex index = indexes.remove(dataSet);
+        if (index != null) {
+            dataSet.removeDataSetListener(index);
+        }
+    }
+
+    /**
+     * Cache the {@link BagFlags} of the data layers, and drop the index and flags of a data layer when the layer is removed.
+     */
+    public static void registerLayerListener() {
+        MainApplication.getLayerManager().addAndFireLayerChangeListener(new LayerChangeListener() {
+            @Override
+            public void layerAdded(LayerAddEvent e) {
+                // index is created on first validation
+                if (e.getAddedLayer() instanceof OsmDataLayer) {
+                    BagFlags.add(((OsmDataLayer) e.getAddedLayer()).getDataSet());
+                }
+            }
+
+            @Override
+            public void layerRemoving(LayerRemoveEvent e) {
+                if (e.getRemovedLayer() instanceof OsmDataLayer) {
+                    DataSet ds = ((OsmDataLayer) e.getRemovedLayer()).getDataSet();
+                    removeIndex(ds);
+                    BagFlags.remove(ds);
+                }
+            }
+
+            @Override
+            public void layerOrderChanged(LayerOrderChangeEvent e) {
+                // nothing to do
+            }
+        });
+    }
+
+    public DataSet getDataSet() {
+        return dataSet;
+    }
+
+    /**
+     * Get the duplicate ref:bag groups, (re)building the index if needed.
+     * @return the duplicate primitives by ref:bag
+     */
+    public Map<RefBagKey, Set<BagObjectOsmPrimitive>> getDuplicateRefBagOsmPrimitives() {
+        return getDuplicateRefBagOsmPrimitives(NullProgressMonitor.INSTANCE);
+    }
+
+    /**
+     * Get the duplicate ref:bag groups, (re)building the index if needed.
+     * @param monitor reports the progress of a rebuild, which stops when it is canceled
+     * @return the duplicate primitives by ref:bag, empty if canceled
+     */
+    public synchronized Map<RefBagKey, Set<BagObjectOsmPrimitive>> getDuplicateRefBagOsmPrimitives(ProgressMonitor monitor) {
+        if (!update(monitor)) {
+            return Collections.emptyMap();
+        }
+        return data.getDuplicateRefBagOsmPrimitives();
+    }
+
+    /**
+     * Get the duplicate ref:bag groups within some partitions, (re)building the index if needed.
+     * @param monitor reports the progress of a rebuild, which stops when it is canceled
+     * @param partitions the partitions to check, see {@link PartitionedRefBagIndex#getPartition(int, int)}
+     * @return the duplicate primitives by ref:bag, empty if canceled
+     */
+    public synchronized Map<RefBagKey, Set<BagObjectOsmPrimitive>> getDuplicateRefBagOsmPrimitives(ProgressMonitor monitor,
+            IntPredicate partitions) {
+        if (!update(monitor)) {
+            return Collections.emptyMap();
+        }
+        return data.getDuplicateRefBagOsmPrimitives(partitions);
+    }
+
+    /**
+     * @return the number of BAG objects by partition, empty if the index is not built yet
+     */
+    public synchronized Map<Integer, Integer> getCounts() {
+        return update(null) ? data.getCounts() : Collections.<Integer, Integer>emptyMap();
+    }
+
+    /**
+     * Apply the queued events, and rebuild the index if needed.
+     * @param monitor reports the progress of a rebuild, null to not rebuild
+     * @return true if the index is valid
+     */
+    private boolean update(ProgressMonitor monitor) {
+        applyPending();
+        Set<Integer> current = getMunicipalities();
+        if (!Objects.equals(municipalities, current)) {
+            if (valid && current != null && (municipalities == null || municipalities.containsAll(current))) {
+                // fewer municipalities, discard the partitions of the others
+                data.retainPartitions(getPartitionFilter(current));
+                municipalities = current;
+            } else {
+                valid = false;
+            }
+        }
+        while (!valid && monitor != null && !monitor.isCanceled()) {
+            rebuild(monitor);
+            // an unknown change during the build invalidates it again
+            applyPending();
+        }
+        return valid;
+    }
+
+    private void applyPending() {
+        List<AbstractDatasetChangedEvent> events;
+        synchronized (pending) {
+            if (overflow) {
+                overflow = false;
+                valid = false;
+            }
+            events = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (AbstractDatasetChangedEvent event : events) {
+            if (!valid) {
+                return;
+            }
+            event.fire(updater);
+        }
+    }
+
+    private void rebuild(ProgressMonitor monitor) {
+        municipalities = getMunicipalities();
+        IntPredicate partitions = getPartitionFilter(municipalities);
+        data = new BagValidationData(partitions);
+        synchronized (pending) {
+            // events from now on are applied after the build, events already in the copy are applied twice which is harmless
+            pending.clear();
+            overflow = false;
+            tracking = true;
+        }
+        List<OsmPrimitive> primitives;
+        dataSet.getReadLock().lock();
+        try {
+            primitives = new ArrayList<>(dataSet.allPrimitives());
+        } finally {
+            dataSet.getReadLock().unlock();
+        }
+        monitor.setTicksCount(primitives.size());
+        if (primitives.size() > BagIndexTask.CHUNK_SIZE && Config.getPref().getBoolean(PREF_PARALLEL, true)) {
+            BagValidationData built = BagIndexTask.index(primitives, partitions, monitor);
+            if (monitor.isCanceled()) {
+                stopTracking();
+                return;
+            }
+            data = built;
+        } else {
+            for (int i = 0; i < primitives.size(); i++) {
+                if ((i & PROGRESS_MASK) == 0) {
+                    if (monitor.isCanceled()) {
+                        stopTracking();
+                        return;
+                    }
+                    monitor.setTicks(i);
+                }
+                add(primitives.get(i));
+            }
+        }
+        valid = true;
+    }
+
+    /**
+     * @return the municipalities to index, null for all
+     */
+    private static Set<Integer> getMunicipalities() {
+        List<String> codes = Config.getPref().getList(PREF_MUNICIPALITIES, Collections.<String>emptyList());
+        if (codes.isEmpty()) {
+            return null;
+        }
+        Set<Integer> result = new HashSet<>();
+        for (String code : codes) {
+            try {
+                result.add(Integer.valueOf(code.trim()));
+            } catch (NumberFormatException e) {
+                Logging.warn("NL-BAG: invalid municipality code in " + PREF_MUNICIPALITIES + ": " + code);
+            }
+        }
+        return result;
+    }
+
+    private static IntPredicate getPartitionFilter(Set<Integer> municipalities) {
+        return municipalities == null ? null
+                : partition -> municipalities.contains(PartitionedRefBagIndex.getMunicipality(partition));
+    }
+
+    private void stopTracking() {
+        data.clear();
+        synchronized (pending) {
+            tracking = false;
+            pending.clear();
+        }
+    }
+
+    private void queue(AbstractDatasetChangedEvent event) {
+        synchronized (pending) {
+            if (!tracking || overflow) {
+                return;
+            }
+            if (pending.size() >= MAX_PENDING) {
+                overflow = true;
+                pending.clear();
+            } else {
+                pending.add(event);
+            }
+        }
+    }
+
+    static boolean isIndexed(OsmPrimitive osm) {
+        return BagUtils.isTaggedAsBagObject(osm) && !osm.isDeleted() && !osm.isIncomplete();
+    }
+
+    private void add(OsmPrimitive osm) {
+        if (isIndexed(osm)) {
+            data.add(osm);
+        }
+    }
+
+    @Override
+    public void primitivesAdded(PrimitivesAddedEvent event) {
+        queue(event);
+    }
+
+    @Override
+    public void primitivesRemoved(PrimitivesRemovedEvent event) {
+        queue(event);
+    }
+
+    @Override
+    public void tagsChanged(TagsChangedEvent event) {
+        queue(event);
+    }
+
+    @Override
+    public void dataChanged(DataChangedEvent event) {
+        queue(event);
+    }
+
+    @Override
+    public void nodeMoved(NodeMovedEvent event) {
+        // geometry is not indexed
+    }
+
+    @Override
+    public void wayNodesChanged(WayNodesChangedEvent event) {
+        // geometry is not indexed
+    }
+
+    @Override
+    public void relationMembersChanged(RelationMembersChangedEvent event) {
+        // geometry is not indexed
+    }
+
+    @Override
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+        // deleting and undeleting is reported as removed and added primitives
+    }
+
+    /**
+     * Applies the queued events to the index. Adding is idempotent, so applying an event
+     * which is already part of the built index does no harm.
+     */
+    private final class Updater implements DataSetListener {
+        @Override
+        public void primitivesAdded(PrimitivesAddedEvent event) {
+            for (OsmPrimitive osm : event.getPrimitives()) {
+                add(osm);
+            }
+        }
+
+        @Override
+        public void primitivesRemoved(PrimitivesRemovedEvent event) {
+            for (OsmPrimitive osm : event.getPrimitives()) {
+                data.remove(osm.get(BagUtils.REF_BAG), osm.get(BagUtils.REF_BAG_OLD), osm);
+            }
+        }
+
+        @Override
+        public void tagsChanged(TagsChangedEvent event) {
+            OsmPrimitive osm = event.getPrimitive();
+            Map<String, String> originalKeys = event.getOriginalKeys();
+            String oldRefBag = originalKeys.get(BagUtils.REF_BAG);
+            String oldRefBagOld = originalKeys.get(BagUtils.REF_BAG_OLD);
+            if (!Objects.equals(oldRefBag, osm.get(BagUtils.REF_BAG))
+                    || !Objects.equals(oldRefBagOld, osm.get(BagUtils.REF_BAG_OLD))) {
+                data.remove(oldRefBag, oldRefBagOld, osm);
+                add(osm);
+            }
+        }
+
+        @Override
+        public void dataChanged(DataChangedEvent event) {
+            Collection<AbstractDatasetChangedEvent> events = event.getEvents();
+            if (events == null) {
+                // unknown changes, rebuild on next validation
+                valid = false;
+            } else {
+                for (AbstractDatasetChangedEvent e : events) {
+                    e.fire(this);
+                }
+            }
+        }
+
+        @Override
+        public void nodeMoved(NodeMovedEvent event) {
+            // geometry is not indexed
+        }
+
+        @Override
+        public void wayNodesChanged(WayNodesChangedEvent event) {
+            // geometry is not indexed
+        }
+
+        @Override
+        public void relationMembersChanged(RelationMembersChangedEvent event) {
+            // geometry is not indexed
+        }
+
+        @Override
+        public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+            // not indexed
+        }
+    }
+}
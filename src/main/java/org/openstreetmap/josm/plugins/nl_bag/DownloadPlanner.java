@@ -0,0 +1,110 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.Bounds;
+
+/**
+ * Determines which parts of a requested area still have to be downloaded.
+ * The area is divided in tiles of a fixed grid, tiles which are completely covered by the
+ * data already present are left out and adjacent missing tiles are combined in rectangles.
+ */
+public class DownloadPlanner {
+    /** Default tile size in degrees */
+    public static final double DEFAULT_TILE_SIZE = 0.005;
+    // use larger tiles when a request would need more tiles
+    private static final int MAX_TILES = 1024;
+
+    private final double tileSize;
+
+    public DownloadPlanner() {
+        this(DEFAULT_TILE_SIZE);
+    }
+
+    public DownloadPlanner(double tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @param requested the requested area
+     * @param present the area already downloaded, may be null
+     * @return the rectangles to download, empty if the requested area is present already
+     */
+    public List<Bounds> plan(Bounds requested, Area present) {
+        double minX = requested.getMinLon();
+        double minY = requested.getMinLat();
+        double maxX = requested.getMaxLon();
+        double maxY = requested.getMaxLat();
+
+        double size = tileSize;
+        int tiles = countTiles(minX, maxX, size) * countTiles(minY, maxY, size);
+        if (tiles > MAX_TILES) {
+            size *= Math.ceil(Math.sqrt((double) tiles / MAX_TILES));
+        }
+        int firstColumn = (int) Math.floor(minX / size);
+        int columns = countTiles(minX, maxX, size);
+        int firstRow = (int) Math.floor(minY / size);
+        int rows = countTiles(minY, maxY, size);
+
+        List<Bounds> result = new ArrayList<>();
+        // rectangles of the previous row, by first and last column
+        Map<Long, Rectangle2D> open = new HashMap<>();
+        for (int row = firstRow; row < firstRow + rows; row++) {
+            double y1 = Math.max(row * size, minY);
+            double y2 = Math.min((row + 1) * size, maxY);
+            Map<Long, Rectangle2D> next = new HashMap<>();
+            int column = firstColumn;
+            while (column < firstColumn + columns) {
+                if (!isMissing(present, column, y1, y2, size, minX, maxX)) {
+                    column++;
+                    continue;
+                }
+                int start = column;
+                while (column < firstColumn + columns && isMissing(present, column, y1, y2, size, minX, maxX)) {
+                    column++;
+                }
+                double x1 = Math.max(start * size, minX);
+                double x2 = Math.min(column * size, maxX);
+                long key = ((long) start << 32) | (column & 0xffffffffL);
+                Rectangle2D rect = open.remove(key);
+                if (rect == null) {
+                    rect = new Rectangle2D.Double(x1, y1, x2 - x1, y2 - y1);
+                } else {
+                    // same columns as the previous row, extend upwards
+                    rect.setRect(rect.getX(), rect.getY(), rect.getWidth(), y2 - rect.getY());
+                }
+                next.put(key, rect);
+            }
+            addAll(result, open);
+            open = next;
+        }
+        addAll(result, open);
+        return result;
+    }
+
+    private static int countTiles(double min, double max, double size) {
+        int first = (int) Math.floor(min / size);
+        int last = (int) Math.ceil(max / size);
+        return Math.max(1, last - first);
+    }
+
+    private static boolean isMissing(Area present, int column, double y1, double y2, double size, double minX, double maxX) {
+        if (present == null) {
+            return true;
+        }
+        double x1 = Math.max(column * size, minX);
+        double x2 = Math.min((column + 1) * size, maxX);
+        return !present.contains(new Rectangle2D.Double(x1, y1, x2 - x1, y2 - y1));
+    }
+
+    private static void addAll(List<Bounds> result, Map<Long, Rectangle2D> rects) {
+        for (Rectangle2D rect : rects.values()) {
+            result.add(new Bounds(rect.getMinY(), rect.getMinX(), rect.getMaxY(), rect.getMaxX()));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.plugins.ods.OdsModule;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Queues load_bag downloads. Requests arriving within a short time are combined into one download,
+ * requests for an area which is already queued or being downloaded are dropped.
+ */
+public final class DownloadScheduler {
+    // time in milliseconds to wait for more requests
+    private static final long DELAY = 500;
+    private static final DownloadScheduler INSTANCE = new DownloadScheduler();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "nl_bag-download-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Bounds> pending = new ArrayList<>();
+    private final Area pendingArea = new Area();
+    private final List<Area> inFlight = new ArrayList<>();
+    private int pendingRequests;
+    private OdsModule module;
+    private ScheduledFuture<?> flush;
+
+    private DownloadScheduler() {
+        // singleton
+    }
+
+    public static DownloadScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue a download.
+     * @param module the module to download with
+     * @param bounds the areas to download
+     * @return false if the areas are already queued or being downloaded
+     */
+    public synchronized boolean submit(OdsModule module, List<Bounds> bounds) {
+        Area requested = new Area();
+        for (Bounds b : bounds) {
+            requested.add(new Area(toRectangle(b)));
+        }
+        if (isCovered(requested)) {
+            return false;
+        }
+        if (this.module != null && this.module != module) {
+            flush();
+        }
+        this.module = module;
+        pending.addAll(bounds);
+        pendingArea.add(requested);
+        pendingRequests++;
+        if (flush == null) {
+            flush = timer.schedule(this::flush, DELAY, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of queued requests plus the number of downloads in progress
+     */
+    public synchronized int getQueueDepth() {
+        return pendingRequests + inFlight.size();
+    }
+
+    private boolean isCovered(Area requested) {
+        Area missing = new Area(requested);
+        missing.subtract(pendingArea);
+        for (Area area : inFlight) {
+            missing.subtract(area);
+        }
+        return missing.isEmpty();
+    }
+
+    private synchronized void flush() {
+        if (flush != null) {
+            flush.cancel(false);
+            flush = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        Area area = new Area(pendingArea);
+        List<Bounds> bounds = coalesce();
+        Logging.info("RemoteControl: downloading {0} load_bag requests in {1} parts", pendingRequests, bounds.size());
+        pending.clear();
+        pendingArea.reset();
+        pendingRequests = 0;
+        inFlight.add(area);
+        MainApplication.worker.submit(new LoadBagHandler.DownloadTask(module, LocalDateTime.now(), bounds, () -> done(area)));
+    }
+
+    private List<Bounds> coalesce() {
+        if (pending.size() == 1) {
+            return new ArrayList<>(pending);
+        }
+        // download the tiles covering the union, leaving out the gaps in its bounding box
+        Rectangle2D rect = pendingArea.getBounds2D();
+        Area gaps = new Area(rect);
+        gaps.subtract(pendingArea);
+        Bounds union = new Bounds(rect.getMinY(), rect.getMinX(), rect.getMaxY(), rect.getMaxX());
+        return new DownloadPlanner().plan(union, gaps);
+    }
+
+    private synchronized void done(Area area) {
+        inFlight.remove(area);
+    }
+
+    private static Rectangle2D toRectangle(Bounds b) {
+        return new Rectangle2D.Double(b.getMinLon(), b.getMinLat(), b.getMaxLon() - b.getMinLon(), b.getMaxLat() - b.getMinLat());
+    }
+}
@@ -0,0 +1,92 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.swing.JOptionPane;
+
+import org.openstreetmap.josm.actions.JosmAction;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.UndoRedoHandler;
+import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.MapFrame;
+import org.openstreetmap.josm.gui.Notification;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
+import org.openstreetmap.josm.gui.progress.swing.PleaseWaitProgressMonitor;
+import org.openstreetmap.josm.plugins.nl_bag.validation.DuplicateBagBatchFixer;
+import org.openstreetmap.josm.tools.Shortcut;
+
+/**
+ * Fix all duplicate BAG objects listed in the validator panel as one undoable change.
+ * The fixer runs on the worker thread with a modal progress dialog which allows to cancel it. The fixer
+ * changes the data set while it runs, so the dialog can't be sent to the background and blocks editing
+ * until the combined command is executed.
+ */
+public class FixDuplicateBagAction extends JosmAction {
+
+    public FixDuplicateBagAction() {
+        super(tr("Fix all duplicate BAG objects"), null,
+                tr("Update tags and replace geometry of all duplicate BAG objects found by the validator"),
+                Shortcut.registerShortcut("tools:nl_bag_fix_duplicates", tr("Tools: {0}", tr("Fix all duplicate BAG objects")),
+                        KeyEvent.CHAR_UNDEFINED, Shortcut.NONE), false);
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        MapFrame map = MainApplication.getMap();
+        if (map == null || map.validatorDialog == null) {
+            return;
+        }
+        MainApplication.worker.submit(new FixTask(new ArrayList<>(map.validatorDialog.tree.getErrors())));
+    }
+
+    @Override
+    protected void updateEnabledState() {
+        setEnabled(getLayerManager().getEditDataSet() != null);
+    }
+
+    static class FixTask extends PleaseWaitRunnable {
+        private final Collection<TestError> errors;
+        private final DuplicateBagBatchFixer fixer = new DuplicateBagBatchFixer();
+        private Command command;
+        private volatile boolean canceled;
+
+        /**
+         * @param errors the validation errors to fix
+         */
+        FixTask(Collection<TestError> errors) {
+            // without a progress task id the dialog has no "In background" button
+            super(tr("Fix all duplicate BAG objects"), new PleaseWaitProgressMonitor(tr("Fix all duplicate BAG objects")), false);
+            this.errors = errors;
+        }
+
+        @Override
+        protected void cancel() {
+            canceled = true;
+        }
+
+        @Override
+        protected void realRun() {
+            command = fixer.fix(errors, getProgressMonitor());
+        }
+
+        @Override
+        protected void finish() {
+            if (canceled) {
+                return;
+            }
+            if (command != null) {
+                // still in the modal dialog, so the data set is unchanged since the command was built
+                UndoRedoHandler.getInstance().add(command);
+            }
+            new Notification(
+                    tr("Fixed {0} duplicate BAG objects, skipped {1}", fixer.getFixedCount(), fixer.getSkippedCount())
+                    ).setIcon(JOptionPane.INFORMATION_MESSAGE).show();
+        }
+    }
+}
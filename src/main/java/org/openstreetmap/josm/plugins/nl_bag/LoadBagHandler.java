@@ -3,12 +3,12 @@ package org.openstreetmap.josm.plugins.nl_bag;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.geom.Area;
-import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.openstreetmap.josm.actions.AutoScaleAction;
@@ -23,16 +23,20 @@ import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.PleaseWaitRunnable;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.io.OsmTransferException;
 import org.openstreetmap.josm.io.remotecontrol.PermissionPrefWithDefault;
 import org.openstreetmap.josm.io.remotecontrol.handler.RequestHandler;
+import org.openstreetmap.josm.plugins.nl_bag.prefetch.BagPrefetcher;
 import org.openstreetmap.josm.plugins.ods.OdsModule;
 import org.openstreetmap.josm.plugins.ods.OpenDataServicesPlugin;
 import org.openstreetmap.josm.plugins.ods.bag.BagImportModule;
 import org.openstreetmap.josm.plugins.ods.io.DownloadRequest;
 import org.openstreetmap.josm.plugins.ods.io.MainDownloader;
 import org.openstreetmap.josm.plugins.ods.jts.Boundary;
+import org.openstreetmap.josm.spi.preferences.Config;
 import org.openstreetmap.josm.tools.Logging;
 import org.xml.sax.SAXException;
 
@@ -42,11 +46,6 @@ import org.xml.sax.SAXException;
  */
 public class LoadBagHandler extends RequestHandler {
 
-    private MainDownloader downloader;
-    private LocalDateTime startDate;
-    private Boundary boundary;
-    private boolean downloadOsm;
-    private boolean downloadOpenData;
     private OdsModule module;
 
     /**
@@ -109,49 +108,26 @@ public class LoadBagHandler extends RequestHandler {
                 if (!PermissionPrefWithDefault.LOAD_DATA.isAllowed()) {
                     Logging.info("RemoteControl: download forbidden by preferences");
                 } else {
-                    Area toDownload = null;
+                    final Bounds bbox = new Bounds(minlat, minlon, maxlat, maxlon);
+                    List<Bounds> toDownload = Collections.singletonList(bbox);
                     if (!settings.isNewLayer()) {
                         // find out whether some data has already been downloaded
-                        Area present = null;
-                        DataSet ds = MainApplication.getLayerManager().getEditDataSet();
-                        if (ds != null) {
-                            present = ds.getDataSourceArea();
-                        }
+                        Area present = getPresentArea();
                         if (present != null && !present.isEmpty()) {
-                            toDownload = new Area(new Rectangle2D.Double(minlon, minlat, maxlon-minlon, maxlat-minlat));
-                            toDownload.subtract(present);
-                            if (!toDownload.isEmpty()) {
-                                // the result might not be a rectangle (L shaped etc)
-                                Rectangle2D downloadBounds = toDownload.getBounds2D();
-                                minlat = downloadBounds.getMinY();
-                                minlon = downloadBounds.getMinX();
-                                maxlat = downloadBounds.getMaxY();
-                                maxlon = downloadBounds.getMaxX();
-                            }
+                            // the result might not be a rectangle (L shaped etc), only download the missing tiles
+                            toDownload = new DownloadPlanner().plan(bbox, present);
                         }
                     }
-                    //if (toDownload != null && toDownload.isEmpty()) {
-                    //    Logging.info("RemoteControl: no download necessary");
-                    //} else {
-						final Bounds bbox = new Bounds(minlat, minlon, maxlat, maxlon);
-						// after downloading, zoom to downloaded area.
-						zoom(Collections.<OsmPrimitive>emptySet(), bbox);
-
-						//MainApplication.worker.submit(new PostDownloadHandler(osmTask, future));
-                        //BagDownloader downloader = new BagDownloader(module);
-                        //Boundary bounds = new Boundary(new Bounds(minlat, minlon, maxlat, maxlon));
-                        //DownloadRequest req = new DownloadRequest(LocalDateTime.now(), bounds, true, true);
-                        //ProgressMonitor progress = new ProgressMonitor();
-                        //downloader.run(progress, req);
-					    this.downloader = module.getDownloader();
-					    startDate = LocalDateTime.now();
-					    boundary = new Boundary(new Bounds(minlat, minlon, maxlat, maxlon));
-					    downloadOsm = true;
-					    downloadOpenData = true;
-						
-                        DownloadTask task = new DownloadTask();
-                        MainApplication.worker.submit(task);
-                    //}
+                    // after downloading, zoom to downloaded area.
+                    zoom(Collections.<OsmPrimitive>emptySet(), bbox);
+
+                    DownloadScheduler scheduler = DownloadScheduler.getInstance();
+                    if (toDownload.isEmpty()) {
+                        Logging.info("RemoteControl: no download necessary");
+                    } else if (!scheduler.submit(module, toDownload)) {
+                        Logging.info("RemoteControl: area is already being downloaded");
+                    }
+                    Logging.info("RemoteControl: load_bag queue depth {0}", scheduler.getQueueDepth());
                 }
             }
         } catch (RuntimeException ex) { // NOPMD
@@ -215,28 +191,124 @@ public class LoadBagHandler extends RequestHandler {
         }
     }
     
-    private class DownloadTask extends PleaseWaitRunnable {
+    /**
+     * @return the area present in both the OSM and the open data layer, null if unknown
+     */
+    private Area getPresentArea() {
+        Area present = getDataSourceArea(module.getOsmLayerManager().getOsmDataLayer());
+        Area openDataPresent = getDataSourceArea(module.getOpenDataLayerManager().getOsmDataLayer());
+        if (present == null || openDataPresent == null) {
+            return null;
+        }
+        present.intersect(openDataPresent);
+        return present;
+    }
+
+    private static Area getDataSourceArea(OsmDataLayer layer) {
+        Area area = layer == null ? null : layer.getDataSet().getDataSourceArea();
+        return area == null ? null : new Area(area);
+    }
 
-        public DownloadTask() {
+    static class DownloadTask extends PleaseWaitRunnable {
+        private final OdsModule module;
+        private final MainDownloader downloader;
+        private final LocalDateTime startDate;
+        private final List<Bounds> bounds;
+        private final boolean downloadOsm = true;
+        private final boolean downloadOpenData = true;
+        private final Runnable done;
+        private volatile boolean canceled;
+
+        /**
+         * @param module the module to download with
+         * @param startDate the download date
+         * @param bounds the areas to download
+         * @param done called when the download has ended, also when it failed
+         */
+        public DownloadTask(OdsModule module, LocalDateTime startDate, List<Bounds> bounds, Runnable done) {
             super(tr("Downloading data"));
+            this.module = module;
+            this.downloader = module.getDownloader();
+            this.startDate = startDate;
+            this.bounds = bounds;
+            this.done = done;
         }
 
-        @SuppressWarnings("synthetic-access")
         @Override
         protected void cancel() {
+            canceled = true;
             downloader.cancel();
         }
 
-        @SuppressWarnings("synthetic-access")
         @Override
         protected void realRun() throws SAXException, IOException, OsmTransferException {
-            DownloadRequest request = new DownloadRequest(startDate, boundary, downloadOsm, downloadOpenData);
-            downloader.run(getProgressMonitor(), request);
+            ProgressMonitor monitor = getProgressMonitor();
+            monitor.beginTask(tr("Downloading data"), bounds.size());
+            BagMetrics.Timer timer = BagMetrics.timer(BagMetrics.DOWNLOAD_RUN);
+            long start = timer.start();
+            boolean failed = true;
+            try {
+                for (Bounds b : bounds) {
+                    if (canceled) {
+                        break;
+                    }
+                    // serve the OSM data from the prefetch cache if possible, the open data is always downloaded
+                    boolean osmCached = downloadOsm && mergePrefetched(b);
+                    DownloadRequest request = new DownloadRequest(startDate, new Boundary(b), downloadOsm && !osmCached, downloadOpenData);
+                    downloader.run(monitor.createSubTaskMonitor(1, false), request);
+                    BagMetrics.counter(BagMetrics.DOWNLOAD_BOUNDS).increment();
+                }
+                failed = false;
+            } finally {
+                monitor.finishTask();
+                done.run();
+                timer.stop(start);
+                if (failed) {
+                    BagMetrics.counter(BagMetrics.DOWNLOAD_FAILED).increment();
+                }
+                BagMetrics.dumpIfEnabled();
+            }
+        }
+
+        private static void join(DataSet osmData, DataSet openData) {
+            BagMetrics.Timer timer = BagMetrics.timer(BagMetrics.JOIN_RUN);
+            long start = timer.start();
+            try {
+                BagLayerJoin.Result result = BagLayerJoin.getInstance(osmData, openData).join();
+                timer.stop(start);
+                BagMetrics.counter(BagMetrics.JOIN_HASHED).add(result.getHashed());
+                Logging.info("NL-BAG: compared OSM and BAG layers: {0}", result);
+            } catch (RuntimeException e) {
+                // the future of the worker is not read, so report the failure here
+                Logging.log(Logging.LEVEL_ERROR, "NL-BAG: comparing OSM and BAG layers failed", e);
+            }
+        }
+
+        private boolean mergePrefetched(Bounds b) {
+            OsmDataLayer layer = module.getOsmLayerManager().getOsmDataLayer();
+            if (layer == null) {
+                return false;
+            }
+            BagPrefetcher prefetcher = BagPrefetcher.getInstance();
+            // drop the tiles which are older than the data of the layer
+            prefetcher.watch(layer.getDataSet());
+            DataSet cached = prefetcher.get(b);
+            if (cached == null) {
+                return false;
+            }
+            GuiHelper.runInEDTAndWait(() -> layer.mergeFrom(cached));
+            return true;
         }
 
-        @SuppressWarnings("synthetic-access")
         @Override
         protected void finish() {
+            if (Config.getPref().getBoolean(BagLayerJoin.PREF_AFTER_DOWNLOAD, false)) {
+                OsmDataLayer osmLayer = module.getOsmLayerManager().getOsmDataLayer();
+                OsmDataLayer openDataLayer = module.getOpenDataLayerManager().getOsmDataLayer();
+                if (osmLayer != null && openDataLayer != null) {
+                    MainApplication.worker.submit(() -> join(osmLayer.getDataSet(), openDataLayer.getDataSet()));
+                }
+            }
             if (downloadOpenData) {
                 MainApplication.getLayerManager().setActiveLayer(module.getOpenDataLayerManager().getOsmDataLayer());
             }
@@ -0,0 +1,79 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.io.remotecontrol.PermissionPrefWithDefault;
+import org.openstreetmap.josm.io.remotecontrol.handler.RequestHandler;
+
+/**
+ * Remote control handler returning the {@link BagMetrics} as JSON, with the number of indexed
+ * BAG objects of the edit layer by municipality and object type.
+ * Resetting the metrics changes state and is done by {@link MetricsResetHandler}.
+ */
+public class MetricsHandler extends RequestHandler {
+
+    /**
+     * The remote control command name used to read the metrics.
+     */
+    public static final String command = "nl_bag_metrics";
+
+    @Override
+    protected void handleRequest() throws RequestHandlerErrorException {
+        JsonObjectBuilder json = Json.createObjectBuilder(BagMetrics.toJson());
+        DataSet ds = MainApplication.getLayerManager().getEditDataSet();
+        if (ds != null) {
+            json.add("partitions", getPartitions(DataSetBagIndex.getIndex(ds).getCounts()));
+        }
+        content = json.build().toString();
+        contentType = "application/json";
+    }
+
+    private static JsonObjectBuilder getPartitions(Map<Integer, Integer> counts) {
+        Map<String, JsonObjectBuilder> municipalities = new TreeMap<>();
+        new TreeMap<>(counts).forEach((partition, count) -> municipalities
+                .computeIfAbsent(String.format("%04d", PartitionedRefBagIndex.getMunicipality(partition)),
+                        m -> Json.createObjectBuilder())
+                .add(PartitionedRefBagIndex.getObjectTypeName(PartitionedRefBagIndex.getObjectType(partition)), count));
+        JsonObjectBuilder json = Json.createObjectBuilder();
+        municipalities.forEach(json::add);
+        return json;
+    }
+
+    @Override
+    public String getPermissionMessage() {
+        return tr("Remote Control has been asked to report the NL-BAG metrics.");
+    }
+
+    @Override
+    public PermissionPrefWithDefault getPermissionPref() {
+        return PermissionPrefWithDefault.READ_PROTOCOL_VERSION;
+    }
+
+    @Override
+    public String[] getMandatoryParams() {
+        return new String[0];
+    }
+
+    @Override
+    public String getUsage() {
+        return "returns the NL-BAG validation, fixer, upload and download metrics and the indexed BAG objects of the edit layer as JSON";
+    }
+
+    @Override
+    public String[] getUsageExamples() {
+        return new String[] {"/nl_bag_metrics"};
+    }
+
+    @Override
+    protected void validateRequest() throws RequestHandlerBadRequestException {
+        // Nothing to validate
+    }
+}
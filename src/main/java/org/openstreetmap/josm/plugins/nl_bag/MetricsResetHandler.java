@@ -0,0 +1,60 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import org.openstreetmap.josm.io.remotecontrol.PermissionPrefWithDefault;
+import org.openstreetmap.josm.io.remotecontrol.handler.RequestHandler;
+
+/**
+ * Remote control handler resetting the {@link BagMetrics}, returning the values before the reset as JSON.
+ */
+public class MetricsResetHandler extends RequestHandler {
+
+    /**
+     * The remote control command name used to reset the metrics.
+     */
+    public static final String command = "nl_bag_metrics_reset";
+
+    /**
+     * Resetting the metrics is not allowed by default, as it changes state.
+     */
+    public static final PermissionPrefWithDefault PERMISSION = new PermissionPrefWithDefault(
+            "remotecontrol.permission.nl_bag_metrics_reset", false, tr("Reset the NL-BAG metrics"));
+
+    @Override
+    protected void handleRequest() throws RequestHandlerErrorException {
+        content = BagMetrics.toJson().toString();
+        contentType = "application/json";
+        BagMetrics.reset();
+    }
+
+    @Override
+    public String getPermissionMessage() {
+        return tr("Remote Control has been asked to reset the NL-BAG metrics.");
+    }
+
+    @Override
+    public PermissionPrefWithDefault getPermissionPref() {
+        return PERMISSION;
+    }
+
+    @Override
+    public String[] getMandatoryParams() {
+        return new String[0];
+    }
+
+    @Override
+    public String getUsage() {
+        return "resets the NL-BAG metrics and returns the values before the reset as JSON";
+    }
+
+    @Override
+    public String[] getUsageExamples() {
+        return new String[] {"/nl_bag_metrics_reset"};
+    }
+
+    @Override
+    protected void validateRequest() throws RequestHandlerBadRequestException {
+        // Nothing to validate
+    }
+}
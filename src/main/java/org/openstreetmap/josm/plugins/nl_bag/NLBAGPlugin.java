@@ -1,75 +1,98 @@
 package org.openstreetmap.josm.plugins.nl_bag;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
-import jakarta.json.Json;
 import jakarta.json.JsonObject;
-import jakarta.json.JsonReader;
 import javax.swing.JOptionPane;
 
 import org.openstreetmap.josm.actions.UploadAction;
 import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.MainMenu;
+import org.openstreetmap.josm.gui.Notification;
+import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.io.remotecontrol.RequestProcessor;
 import org.openstreetmap.josm.plugins.Plugin;
 import org.openstreetmap.josm.plugins.PluginInformation;
+import org.openstreetmap.josm.plugins.nl_bag.prefetch.PrefetchUploadHook;
+import org.openstreetmap.josm.plugins.nl_bag.validation.BackgroundBagValidator;
+import org.openstreetmap.josm.plugins.nl_bag.validation.BagTagCheck;
+import org.openstreetmap.josm.plugins.nl_bag.validation.DuplicateAddress;
 import org.openstreetmap.josm.plugins.nl_bag.validation.DuplicateBag;
+import org.openstreetmap.josm.plugins.nl_bag.validation.OverlappingBuilding;
+import org.openstreetmap.josm.spi.preferences.Config;
 import org.openstreetmap.josm.tools.I18n;
+import org.openstreetmap.josm.tools.Logging;
 
 public class NLBagPlugin extends Plugin {
 
     private final static String INFO_URL = "https://bag.tools4osm.nl/plugins/versions.json";
-    private JsonObject metaInfo;
-    private boolean isDebug = false;
+    /** Preference to override the location of the version information, e.g. with a local file */
+    public final static String PREF_INFO_URL = "nl_bag.version.url";
+    private final static long INFO_MAX_AGE = TimeUnit.HOURS.toMillis(24);
+    private volatile boolean isDebug = false;
 
     public NLBagPlugin(PluginInformation info) {
         super(info);
         OsmValidator.addTest(DuplicateBag.class);
+        OsmValidator.addTest(DuplicateAddress.class);
+        OsmValidator.addTest(BagTagCheck.class);
+        OsmValidator.addTest(OverlappingBuilding.class);
         UploadAction.registerUploadHook(new UpdateBagTagsHook());
+        UploadAction.registerUploadHook(new PrefetchUploadHook());
         RequestProcessor.addRequestHandlerClass(LoadBagHandler.command, LoadBagHandler.class);
+        RequestProcessor.addRequestHandlerClass(MetricsHandler.command, MetricsHandler.class);
+        RequestProcessor.addRequestHandlerClass(MetricsResetHandler.command, MetricsResetHandler.class);
+        RequestProcessor.addRequestHandlerClass(PrefetchBagHandler.command, PrefetchBagHandler.class);
+        DataSetBagIndex.registerLayerListener();
+        BagLayerJoin.registerLayerListener();
+        BackgroundBagValidator.register();
+        MainMenu.add(MainApplication.getMenu().toolsMenu, new FixDuplicateBagAction());
 
-        readInfo();
-        checkVersion(info);
+        // don't delay start-up or downloads on the main worker with network access
+        Thread versionCheck = new Thread(() -> checkVersion(info), "nl_bag-version-check");
+        versionCheck.setDaemon(true);
+        versionCheck.start();
     }
     
     public void checkVersion(PluginInformation info) {
-        if (metaInfo == null) return;
+        JsonObject metaInfo = readInfo();
+        if (metaInfo == null) {
+            showNotification(I18n.tr("No version information is available at the moment.\n" +
+                    "Your NL-BAG version may be out of date"));
+            return;
+        }
+        // the version object and latest version are checked by VersionInfo
         String latestVersion = metaInfo.getJsonObject("version").getString("latest");
-        String nextVersion = metaInfo.getJsonObject("version").getString("next");
+        String nextVersion = metaInfo.getJsonObject("version").getString("next", null);
         if (!info.version.equals(latestVersion) && !info.version.equals(nextVersion)) {
-            JOptionPane.showMessageDialog(MainApplication.getMainFrame(), I18n.tr("Your NL-BAG version ({0}) is out of date.\n" +
-                    "Please upgrade to the latest version: {1}", info.version, latestVersion), "Plug-in out of date", JOptionPane.WARNING_MESSAGE);
+            showNotification(I18n.tr("Your NL-BAG version ({0}) is out of date.\n" +
+                    "Please upgrade to the latest version: {1}", info.version, latestVersion));
         }
         if (!info.version.equals(latestVersion) && info.version.equals(nextVersion)) {
             isDebug = true;
         }
     }
     
-    private void readInfo() {
-        URL url;
+    private JsonObject readInfo() {
         try {
-            url = new URL(INFO_URL);
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
-        try (
-            InputStream is = url.openStream();
-            JsonReader reader = Json.createReader(is);
-            )  {
-                metaInfo = reader.readObject().getJsonObject("nl-bag");
-                if (metaInfo == null) {
-                    JOptionPane.showMessageDialog(MainApplication.getMainFrame(), I18n.tr("No version information is available at the moment.\n" +
-                            "Your NL-BAG version may be out of date"), "No version info", JOptionPane.WARNING_MESSAGE);
-            }
+            URL url = new URL(Config.getPref().get(PREF_INFO_URL, INFO_URL));
+            File cacheFile = new File(Config.getDirs().getCacheDirectory(true), "nl_bag/versions.json");
+            return new VersionInfo(url, cacheFile, INFO_MAX_AGE).read();
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(MainApplication.getMainFrame(), I18n.tr("No version information is available at the moment.\n" +
-                    "Your NL-BAG version may be out of date"), "No version info", JOptionPane.WARNING_MESSAGE);
-
+            Logging.warn("NL-BAG version info not available: " + e.getMessage());
+            return null;
         }
     }
 
+    private static void showNotification(String message) {
+        GuiHelper.runInEDT(() -> new Notification(message)
+                .setIcon(JOptionPane.WARNING_MESSAGE)
+                .setDuration(Notification.TIME_LONG)
+                .show());
+    }
+
 }
@@ -0,0 +1,215 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+
+/**
+ * ref:bag index partitioned by municipality and object type. A BAG identifier has 16 digits,
+ * the first 4 are the municipality code and the next 2 the object type, so the partition of a
+ * numeric ref:bag is its value divided by 10<sup>10</sup>, e.g. 0363 and 10 (pand) for
+ * 0363100012345678.
+ * <p>
+ * Each partition is a separate {@link RefBagIndex}, so a partition can be queried and discarded
+ * on its own, and the number of primitives in a partition is available directly.
+ */
+public class PartitionedRefBagIndex {
+    /** Partition of primitives without a numeric ref:bag */
+    public static final int NO_PARTITION = -1;
+
+    public static final int VERBLIJFSOBJECT = 1;
+    public static final int LIGPLAATS = 2;
+    public static final int STANDPLAATS = 3;
+    public static final int PAND = 10;
+    public static final int NUMMERAANDUIDING = 20;
+    public static final int OPENBARE_RUIMTE = 30;
+
+    private static final long PARTITION_DIVISOR = 10_000_000_000L;
+
+    private final Map<Integer, RefBagIndex> partitions = new HashMap<>();
+
+    /**
+     * @param refBag a numeric ref:bag, negative if there is none
+     * @return the partition of the ref:bag
+     */
+    public static int getPartition(long refBag) {
+        return refBag < 0 ? NO_PARTITION : (int) (refBag / PARTITION_DIVISOR);
+    }
+
+    /**
+     * @param municipality the 4 digit municipality code
+     * @param objectType the 2 digit object type
+     * @return the partition
+     */
+    public static int getPartition(int municipality, int objectType) {
+        return municipality * 100 + objectType;
+    }
+
+    public static int getMunicipality(int partition) {
+        return partition / 100;
+    }
+
+    public static int getObjectType(int partition) {
+        return partition % 100;
+    }
+
+    /**
+     * @param objectType the 2 digit object type
+     * @return the BAG name of the object type, the number if unknown
+     */
+    public static String getObjectTypeName(int objectType) {
+        switch (objectType) {
+        case VERBLIJFSOBJECT:
+            return "verblijfsobject";
+        case LIGPLAATS:
+            return "ligplaats";
+        case STANDPLAATS:
+            return "standplaats";
+        case PAND:
+            return "pand";
+        case NUMMERAANDUIDING:
+            return "nummeraanduiding";
+        case OPENBARE_RUIMTE:
+            return "openbare_ruimte";
+        default:
+            return Integer.toString(objectType);
+        }
+    }
+
+    /**
+     * Add a primitive to the partition of its key.
+     * @param key the numeric ref:bag, must not be negative
+     * @param osm the primitive
+     */
+    public void add(long key, OsmPrimitive osm) {
+        add(getPartition(key), key, osm);
+    }
+
+    /**
+     * Add a primitive to a given partition, e.g. the ref:bag:old of a primitive to the partition of its ref:bag.
+     * @param partition the partition
+     * @param key the key, must not be negative
+     * @param osm the primitive
+     */
+    public void add(int partition, long key, OsmPrimitive osm) {
+        partitions.computeIfAbsent(partition, p -> new RefBagIndex()).add(key, osm);
+    }
+
+    public void remove(long key, OsmPrimitive osm) {
+        remove(getPartition(key), key, osm);
+    }
+
+    public void remove(int partition, long key, OsmPrimitive osm) {
+        RefBagIndex index = partitions.get(partition);
+        if (index != null) {
+            index.remove(key, osm);
+            if (index.getEntryCount() == 0) {
+                partitions.remove(partition);
+            }
+        }
+    }
+
+    /**
+     * Add all primitives of another index, as used to merge partial indexes.
+     * @param other the index to merge into this one
+     */
+    public void addAll(PartitionedRefBagIndex other) {
+        for (Entry<Integer, RefBagIndex> entry : other.partitions.entrySet()) {
+            RefBagIndex index = partitions.get(entry.getKey());
+            if (index == null) {
+                index = new RefBagIndex();
+                partitions.put(entry.getKey(), index);
+            }
+            index.addAll(entry.getValue());
+        }
+    }
+
+    public void clear() {
+        partitions.clear();
+    }
+
+    /**
+     * @return the number of primitives in all partitions
+     */
+    public int getEntryCount() {
+        int count = 0;
+        for (RefBagIndex index : partitions.values()) {
+            count += index.getEntryCount();
+        }
+        return count;
+    }
+
+    /**
+     * @param partition the partition
+     * @return the number of primitives in the partition
+     */
+    public int getEntryCount(int partition) {
+        RefBagIndex index = partitions.get(partition);
+        return index == null ? 0 : index.getEntryCount();
+    }
+
+    /**
+     * @return the partitions which are not empty
+     */
+    public Set<Integer> getPartitions() {
+        return Collections.unmodifiableSet(partitions.keySet());
+    }
+
+    /**
+     * Discard a partition.
+     * @param partition the partition
+     */
+    public void removePartition(int partition) {
+        partitions.remove(partition);
+    }
+
+    /**
+     * @param filter the partitions to keep
+     * @return a view of the selected partitions, sharing the partitions with this index
+     */
+    public PartitionedRefBagIndex select(IntPredicate filter) {
+        PartitionedRefBagIndex selection = new PartitionedRefBagIndex();
+        for (Entry<Integer, RefBagIndex> entry : partitions.entrySet()) {
+            if (filter.test(entry.getKey())) {
+                selection.partitions.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return selection;
+    }
+
+    /**
+     * Visit all entries of all partitions.
+     * @param consumer the consumer of the entries
+     */
+    public void forEach(RefBagIndex.EntryConsumer consumer) {
+        for (RefBagIndex index : partitions.values()) {
+            index.forEach(consumer);
+        }
+    }
+
+    /**
+     * @param key the numeric ref:bag
+     * @return all primitives with the key in the partition of the key
+     */
+    public List<OsmPrimitive> getAll(long key) {
+        RefBagIndex index = partitions.get(getPartition(key));
+        return index == null ? Collections.<OsmPrimitive>emptyList() : index.getAll(key);
+    }
+
+    /**
+     * @return the primitives by ref:bag of all partitions, for ref:bag values used more than once
+     */
+    public Map<Long, List<OsmPrimitive>> getDuplicates() {
+        Map<Long, List<OsmPrimitive>> duplicates = new HashMap<>();
+        for (RefBagIndex index : partitions.values()) {
+            duplicates.putAll(index.getDuplicates());
+        }
+        return duplicates;
+    }
+}
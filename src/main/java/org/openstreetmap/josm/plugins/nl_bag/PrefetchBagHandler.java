@@ -0,0 +1,141 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+import jakarta.json.Json;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.io.remotecontrol.PermissionPrefWithDefault;
+import org.openstreetmap.josm.io.remotecontrol.handler.RequestHandler;
+import org.openstreetmap.josm.plugins.nl_bag.prefetch.BagPrefetcher;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Remote control handler to fetch the OSM data around a work area in the background,
+ * see {@link BagPrefetcher}. The area is a bounding box or a polygon.
+ */
+public class PrefetchBagHandler extends RequestHandler {
+
+    /**
+     * The remote control command name used to prefetch an area.
+     */
+    public static final String command = "prefetch_bag";
+    private static final int DEFAULT_MARGIN = 1;
+
+    private Shape area;
+    private int margin;
+
+    @Override
+    protected void handleRequest() throws RequestHandlerErrorException {
+        BagPrefetcher prefetcher = BagPrefetcher.getInstance();
+        int queued = prefetcher.prefetch(area, margin);
+        Logging.info("RemoteControl: prefetching {0} tiles", queued);
+        content = Json.createObjectBuilder()
+                .add("queued", queued)
+                .add("cachedTiles", prefetcher.getCachedTiles())
+                .add("cachedPrimitives", prefetcher.getCachedPrimitives())
+                .build().toString();
+        contentType = "application/json";
+    }
+
+    @Override
+    public String getPermissionMessage() {
+        return tr("Remote Control has been asked to download data in the background.");
+    }
+
+    @Override
+    public PermissionPrefWithDefault getPermissionPref() {
+        return PermissionPrefWithDefault.LOAD_DATA;
+    }
+
+    @Override
+    public String[] getMandatoryParams() {
+        return new String[0];
+    }
+
+    @Override
+    public String[] getOptionalParams() {
+        return new String[] {"bottom", "top", "left", "right", "polygon", "margin"};
+    }
+
+    @Override
+    public String getUsage() {
+        return "download the OSM data of a bounding box or polygon (lat,lon;lat,lon;...) and the tiles around it in the background";
+    }
+
+    @Override
+    public String[] getUsageExamples() {
+        return new String[] {"/prefetch_bag?left=5.49&top=52.37&right=5.51&bottom=52.35&margin=2",
+                "/prefetch_bag?polygon=52.35,5.49;52.37,5.50;52.35,5.51"};
+    }
+
+    @Override
+    protected void validateRequest() throws RequestHandlerBadRequestException {
+        try {
+            margin = args.containsKey("margin") ? Integer.parseInt(args.get("margin")) : DEFAULT_MARGIN;
+            if (args.containsKey("polygon")) {
+                area = parsePolygon(args.get("polygon"));
+            } else if (args.containsKey("bottom") && args.containsKey("top") && args.containsKey("left") && args.containsKey("right")) {
+                double minlat = Double.parseDouble(args.get("bottom"));
+                double maxlat = Double.parseDouble(args.get("top"));
+                double minlon = Double.parseDouble(args.get("left"));
+                double maxlon = Double.parseDouble(args.get("right"));
+                checkLatLon(minlat, minlon);
+                checkLatLon(maxlat, maxlon);
+                if (minlat > maxlat || minlon > maxlon) {
+                    throw new RequestHandlerBadRequestException(tr("The minima must be less than the maxima"));
+                }
+                area = new Rectangle2D.Double(minlon, minlat, maxlon - minlon, maxlat - minlat);
+            } else {
+                throw new RequestHandlerBadRequestException(tr("Either a bounding box or a polygon is required"));
+            }
+        } catch (NumberFormatException e) {
+            throw new RequestHandlerBadRequestException("NumberFormatException ("+e.getMessage()+')', e);
+        }
+        if (margin < 0 || margin > 10) {
+            throw new RequestHandlerBadRequestException(tr("The margin must be between {0} and {1}", 0, 10));
+        }
+        long tileCount = BagPrefetcher.getInstance().getTileCount(area, margin);
+        if (tileCount > BagPrefetcher.getMaxTiles()) {
+            throw new RequestHandlerBadRequestException(tr("The area with its margin has {0} tiles, at most {1} are allowed",
+                    tileCount, BagPrefetcher.getMaxTiles()));
+        }
+    }
+
+    private static Shape parsePolygon(String value) throws RequestHandlerBadRequestException {
+        String[] points = value.split(";");
+        if (points.length < 3) {
+            throw new RequestHandlerBadRequestException(tr("A polygon needs at least 3 points"));
+        }
+        Path2D path = new Path2D.Double();
+        for (int i = 0; i < points.length; i++) {
+            String[] latLon = points[i].split(",");
+            if (latLon.length != 2) {
+                throw new RequestHandlerBadRequestException(tr("Invalid point: {0}", points[i]));
+            }
+            double lat = Double.parseDouble(latLon[0].trim());
+            double lon = Double.parseDouble(latLon[1].trim());
+            checkLatLon(lat, lon);
+            if (i == 0) {
+                path.moveTo(lon, lat);
+            } else {
+                path.lineTo(lon, lat);
+            }
+        }
+        path.closePath();
+        return path;
+    }
+
+    private static void checkLatLon(double lat, double lon) throws RequestHandlerBadRequestException {
+        if (!LatLon.isValidLat(lat)) {
+            throw new RequestHandlerBadRequestException(tr("The latitudes must be between {0} and {1}", -90d, 90d));
+        }
+        if (!LatLon.isValidLon(lon)) {
+            throw new RequestHandlerBadRequestException(tr("The longitudes must be between {0} and {1}", -180d, 180d));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+
+/**
+ * Groups primitives with the same ref:bag together with renumbered objects, i.e. objects whose
+ * ref:bag:old is the ref:bag of another object nearby. Chains like A &lt;- B (ref:bag:old = A) &lt;- C
+ * end up in one group.
+ * <p>
+ * The groups are resolved with a union-find over the participating primitives, so the cost is near
+ * linear in the number of links. Links over ref:bag:old are only made within neighbouring grid cells,
+ * which also keeps a ref:bag:old value shared by many objects in bad data from linking everything.
+ */
+class RefBagChainResolver {
+    /** Grid cell size in degrees, about 1 km */
+    static final double CELL_SIZE = 0.01;
+    // candidates per key above which they are looked up by grid cell instead of compared one by one
+    private static final int GRID_THRESHOLD = 8;
+
+    private final PartitionedRefBagIndex refBagIndex;
+    private final PartitionedRefBagIndex oldRefBagIndex;
+    private final Map<OsmPrimitive, Integer> ids = new IdentityHashMap<>();
+    private final List<OsmPrimitive> elements = new ArrayList<>();
+    private int[] parent = new int[16];
+    private int[] size = new int[16];
+
+    // grid of the primitives with the last looked up ref:bag
+    private long gridKey = -1;
+    private Map<Long, List<OsmPrimitive>> grid;
+
+    /**
+     * @param refBagIndex the primitives by ref:bag
+     * @param oldRefBagIndex the same primitives by ref:bag:old
+     */
+    RefBagChainResolver(PartitionedRefBagIndex refBagIndex, PartitionedRefBagIndex oldRefBagIndex) {
+        this.refBagIndex = refBagIndex;
+        this.oldRefBagIndex = oldRefBagIndex;
+    }
+
+    /**
+     * @return the groups with more than one primitive, by the lowest numeric ref:bag in the group
+     */
+    Map<Long, List<OsmPrimitive>> resolve() {
+        // same ref:bag, regardless of the distance
+        for (List<OsmPrimitive> sameKey : refBagIndex.getDuplicates().values()) {
+            int first = id(sameKey.get(0));
+            for (int i = 1; i < sameKey.size(); i++) {
+                union(first, id(sameKey.get(i)));
+            }
+        }
+        // renumbered objects
+        oldRefBagIndex.forEach(this::linkOld);
+
+        Map<Integer, List<OsmPrimitive>> components = new HashMap<>();
+        for (int i = 0; i < elements.size(); i++) {
+            components.computeIfAbsent(find(i), k -> new ArrayList<>(2)).add(elements.get(i));
+        }
+        Map<Long, List<OsmPrimitive>> groups = new HashMap<>();
+        for (Entry<Integer, List<OsmPrimitive>> entry : components.entrySet()) {
+            List<OsmPrimitive> group = entry.getValue();
+            if (group.size() > 1) {
+                long key = Long.MAX_VALUE;
+                for (OsmPrimitive osm : group) {
+                    long refBag = BagUtils.parseRefBag(osm.get(BagUtils.REF_BAG));
+                    if (refBag >= 0 && refBag < key) {
+                        key = refBag;
+                    }
+                }
+                groups.put(key, group);
+            }
+        }
+        return groups;
+    }
+
+    private void linkOld(long oldKey, OsmPrimitive osm) {
+        List<OsmPrimitive> candidates = refBagIndex.getAll(oldKey);
+        if (candidates.isEmpty()) {
+            return;
+        }
+        long cell = getCell(osm);
+        if (candidates.size() <= GRID_THRESHOLD) {
+            for (OsmPrimitive candidate : candidates) {
+                if (candidate != osm && isNeighbour(cell, getCell(candidate))) {
+                    union(id(osm), id(candidate));
+                }
+            }
+            return;
+        }
+        if (gridKey != oldKey) {
+            gridKey = oldKey;
+            grid = new HashMap<>();
+            for (OsmPrimitive candidate : candidates) {
+                grid.computeIfAbsent(getCell(candidate), k -> new ArrayList<>(1)).add(candidate);
+            }
+        }
+        int x = (int) (cell >> 32);
+        int y = (int) cell;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                List<OsmPrimitive> inCell = grid.get(toCell(x + dx, y + dy));
+                if (inCell != null) {
+                    for (OsmPrimitive candidate : inCell) {
+                        if (candidate != osm) {
+                            union(id(osm), id(candidate));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    static long getCell(OsmPrimitive osm) {
+        BBox bbox = osm.getBBox();
+        int x = (int) Math.floor((bbox.getMinLon() + bbox.getMaxLon()) / 2 / CELL_SIZE);
+        int y = (int) Math.floor((bbox.getMinLat() + bbox.getMaxLat()) / 2 / CELL_SIZE);
+        return toCell(x, y);
+    }
+
+    private static long toCell(int x, int y) {
+        return (long) x << 32 | (y & 0xffffffffL);
+    }
+
+    private static boolean isNeighbour(long cell1, long cell2) {
+        return Math.abs((int) (cell1 >> 32) - (int) (cell2 >> 32)) <= 1
+                && Math.abs((int) cell1 - (int) cell2) <= 1;
+    }
+
+    private int id(OsmPrimitive osm) {
+        Integer id = ids.get(osm);
+        if (id == null) {
+            id = elements.size();
+            ids.put(osm, id);
+            elements.add(osm);
+            if (id == parent.length) {
+                parent = Arrays.copyOf(parent, id * 2);
+                size = Arrays.copyOf(size, id * 2);
+            }
+            parent[id] = id;
+            size[id] = 1;
+        }
+        return id;
+    }
+
+    private int find(int i) {
+        int root = i;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        // path compression
+        while (parent[i] != root) {
+            int next = parent[i];
+            parent[i] = root;
+            i = next;
+        }
+        return root;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA != rootB) {
+            // union by size
+            if (size[rootA] < size[rootB]) {
+                parent[rootA] = rootB;
+                size[rootB] += size[rootA];
+            } else {
+                parent[rootB] = rootA;
+                size[rootA] += size[rootB];
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+
+/**
+ * Open addressing hash map from a numeric ref:bag to the primitive carrying it.
+ * Only the first primitive of a ref:bag is kept in the table, primitives sharing
+ * a ref:bag are kept in a separate overflow map which stays small as duplicates are rare.
+ */
+public class RefBagIndex {
+    private static final long FREE = -1L;
+    private static final int MIN_BITS = 4;
+
+    private long[] keys;
+    private OsmPrimitive[] values;
+    private int shift;
+    private int mask;
+    private int size;
+    // number of primitives, including the ones sharing a ref:bag
+    private int entryCount;
+    private final Map<Long, List<OsmPrimitive>> duplicates = new HashMap<>();
+
+    public RefBagIndex() {
+        allocate(MIN_BITS);
+    }
+
+    private void allocate(int bits) {
+        keys = new long[1 << bits];
+        Arrays.fill(keys, FREE);
+        values = new OsmPrimitive[1 << bits];
+        shift = 64 - bits;
+        mask = (1 << bits) - 1;
+    }
+
+    private int hash(long key) {
+        // fibonacci hashing, ref:bag values share long prefixes
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private int slot(long key) {
+        int i = hash(key);
+        while (keys[i] != FREE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * @return the number of distinct ref:bag values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of primitives
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public void clear() {
+        allocate(MIN_BITS);
+        size = 0;
+        entryCount = 0;
+        duplicates.clear();
+    }
+
+    /**
+     * Add a primitive.
+     * @param key the numeric ref:bag, must not be negative
+     * @param osm the primitive
+     */
+    public void add(long key, OsmPrimitive osm) {
+        int i = slot(key);
+        if (keys[i] == FREE) {
+            keys[i] = key;
+            values[i] = osm;
+            entryCount++;
+            if (++size > (mask + 1) >> 1) {
+                grow();
+            }
+            return;
+        }
+        List<OsmPrimitive> sameKey = duplicates.get(key);
+        if (sameKey == null) {
+            if (values[i] == osm) {
+                return;
+            }
+            sameKey = new ArrayList<>(2);
+            sameKey.add(values[i]);
+            duplicates.put(key, sameKey);
+        }
+        if (!sameKey.contains(osm)) {
+            sameKey.add(osm);
+            entryCount++;
+        }
+    }
+
+    /**
+     * Remove a primitive.
+     * @param key the numeric ref:bag the primitive was added with
+     * @param osm the primitive
+     */
+    public void remove(long key, OsmPrimitive osm) {
+        int i = slot(key);
+        if (keys[i] == FREE) {
+            return;
+        }
+        List<OsmPrimitive> sameKey = duplicates.get(key);
+        if (sameKey == null) {
+            if (values[i] == osm) {
+                delete(i);
+                entryCount--;
+            }
+            return;
+        }
+        if (sameKey.remove(osm)) {
+            entryCount--;
+        }
+        if (sameKey.size() == 1) {
+            // no longer a duplicate
+            duplicates.remove(key);
+        }
+        values[i] = sameKey.get(0);
+    }
+
+    /**
+     * Add all primitives of another index, as used to merge partial indexes.
+     * @param other the index to merge into this one
+     */
+    public void addAll(RefBagIndex other) {
+        for (int j = 0; j < other.keys.length; j++) {
+            if (other.keys[j] != FREE) {
+                add(other.keys[j], other.values[j]);
+            }
+        }
+        for (Map.Entry<Long, List<OsmPrimitive>> entry : other.duplicates.entrySet()) {
+            for (OsmPrimitive osm : entry.getValue()) {
+                add(entry.getKey(), osm);
+            }
+        }
+    }
+
+    /**
+     * Receives the entries of an index.
+     */
+    public interface EntryConsumer {
+        void accept(long key, OsmPrimitive osm);
+    }
+
+    /**
+     * Visit all entries, the entries of one key are visited one after another.
+     * @param consumer the consumer of the entries
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int j = 0; j < keys.length; j++) {
+            long key = keys[j];
+            if (key != FREE) {
+                List<OsmPrimitive> sameKey = duplicates.get(key);
+                if (sameKey == null) {
+                    consumer.accept(key, values[j]);
+                } else {
+                    for (OsmPrimitive osm : sameKey) {
+                        consumer.accept(key, osm);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key the numeric ref:bag
+     * @return all primitives with the key
+     */
+    public List<OsmPrimitive> getAll(long key) {
+        List<OsmPrimitive> sameKey = duplicates.get(key);
+        if (sameKey != null) {
+            return Collections.unmodifiableList(sameKey);
+        }
+        OsmPrimitive osm = get(key);
+        return osm == null ? Collections.<OsmPrimitive>emptyList() : Collections.singletonList(osm);
+    }
+
+    public OsmPrimitive get(long key) {
+        int i = slot(key);
+        return keys[i] == FREE ? null : values[i];
+    }
+
+    /**
+     * @return the primitives by ref:bag, for ref:bag values used more than once
+     */
+    public Map<Long, List<OsmPrimitive>> getDuplicates() {
+        return Collections.unmodifiableMap(duplicates);
+    }
+
+    private void delete(int hole) {
+        // shift back following entries of the same probe sequence
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            long key = keys[i];
+            if (key == FREE) {
+                break;
+            }
+            int home = hash(key);
+            boolean movable = i > hole ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                keys[hole] = key;
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = FREE;
+        values[hole] = null;
+        size--;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        OsmPrimitive[] oldValues = values;
+        allocate(65 - shift);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != FREE) {
+                int i = slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
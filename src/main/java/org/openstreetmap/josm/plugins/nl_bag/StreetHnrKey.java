@@ -2,22 +2,45 @@ package org.openstreetmap.josm.plugins.nl_bag;
 
 import java.util.Objects;
 
+import org.openstreetmap.josm.data.osm.Node;
+
+/**
+ * Street and house number of an address, limited to the city of the address.
+ * Addresses without a city are limited to a grid cell around their location instead.
+ */
 public class StreetHnrKey {
+    // size of the grid cells in degrees, roughly 4 by 6 km
+    private static final double CELL_SIZE = 0.05;
+
     private final String street;
     private final String fullHouseNumber;
+    private final String city;
+    private final long cell;
 
-    public StreetHnrKey(String street, String fullHouseNumber) {
+    public StreetHnrKey(String street, String fullHouseNumber, String city, long cell) {
         super();
         this.street = street;
         this.fullHouseNumber = fullHouseNumber;
+        this.city = city;
+        this.cell = cell;
     }
 
     public StreetHnrKey(AddressNode addressNode) {
-        this(addressNode.getAddress());
+        this(addressNode.getAddress(), addressNode.getNode());
+    }
+
+    public StreetHnrKey(Address address, Node node) {
+        this(address.getStreetName(), address.getFullHouseNumber(), address.getCity(),
+                address.getCity() == null ? getCell(node) : 0);
     }
 
-    public StreetHnrKey(Address address) {
-        this(address.getStreetName(), address.getFullHouseNumber());
+    private static long getCell(Node node) {
+        if (!node.isLatLonKnown()) {
+            return 0;
+        }
+        long row = (long) Math.floor(node.lat() / CELL_SIZE);
+        long column = (long) Math.floor(node.lon() / CELL_SIZE);
+        return (row << 32) | (column & 0xffffffffL);
     }
 
     public String getStreet() {
@@ -28,9 +51,13 @@ public class StreetHnrKey {
         return fullHouseNumber;
     }
 
+    public String getCity() {
+        return city;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(street, fullHouseNumber);
+        return Objects.hash(street, fullHouseNumber, city, cell);
     }
 
     @Override
@@ -40,6 +67,8 @@ public class StreetHnrKey {
 
     public boolean equals(StreetHnrKey obj) {
         return Objects.equals(obj.fullHouseNumber, fullHouseNumber)
-                && Objects.equals(obj.street, street);
+                && Objects.equals(obj.street, street)
+                && Objects.equals(obj.city, city)
+                && obj.cell == cell;
     }
 }
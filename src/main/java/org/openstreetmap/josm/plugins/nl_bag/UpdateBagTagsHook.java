@@ -1,17 +1,12 @@
 package org.openstreetmap.josm.plugins.nl_bag;
 
-import static org.openstreetmap.josm.tools.I18n.tr;
-
-import java.util.ArrayList;
 import java.util.List;
 
 import org.openstreetmap.josm.actions.upload.UploadHook;
-import org.openstreetmap.josm.command.ChangePropertyCommand;
-import org.openstreetmap.josm.command.Command;
-import org.openstreetmap.josm.command.SequenceCommand;
 import org.openstreetmap.josm.data.APIDataSet;
 import org.openstreetmap.josm.data.UndoRedoHandler;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.tools.Logging;
 
 /**
  * Update BAG Reference tags for all modified objects before upload.
@@ -20,24 +15,37 @@ class UpdateBagTagsHook implements UploadHook {
 
     @Override
     public final boolean checkUpload(APIDataSet apiDataSet) {
-        List<OsmPrimitive> objectsToUpload = apiDataSet.getPrimitives();
-        
+        BagMetrics.Timer timer = BagMetrics.timer(BagMetrics.UPLOAD_HOOK_RUN);
+        long start = timer.start();
         // Find old-style BAG references and add leading "0" if updating, leave untouched otherwise to prevent unneeded changing primitives
-        List<Command> commands = new ArrayList<>();
-        for (OsmPrimitive osm : objectsToUpload) {
-        	if (BagUtils.isTaggedAsBagObject(osm))
-        	{
-        		if (osm.get(BagUtils.REF_BAG).length() < 16)
-        		{
-        			commands.add(new ChangePropertyCommand(osm, BagUtils.REF_BAG, BagUtils.normalizeRefBag(osm)));        		
-    			}
-        	}
-        }
+        ChangeTagBatchCommand command = null;
+        command = addShortRefBags(apiDataSet.getPrimitivesToAdd(), command);
+        command = addShortRefBags(apiDataSet.getPrimitivesToUpdate(), command);
 
-        if (!commands.isEmpty())
+        if (command != null)
         {
-            UndoRedoHandler.getInstance().add(new SequenceCommand(tr("Updating BAG Reference tag"), commands));
+            UndoRedoHandler.getInstance().add(command);
+            Logging.info("NL-BAG: updated ref:bag of {0} objects before upload", command.size());
+            BagMetrics.counter(BagMetrics.UPLOAD_HOOK_UPDATED).add(command.size());
         }
+        timer.stop(start);
         return true;
     }
-}
\ No newline at end of file
+
+    private static ChangeTagBatchCommand addShortRefBags(List<OsmPrimitive> primitives, ChangeTagBatchCommand command) {
+        for (OsmPrimitive osm : primitives) {
+            // deleted objects are not uploaded with tags, untagged objects can't have a ref:bag
+            if (osm.isDeleted() || !osm.hasKeys()) {
+                continue;
+            }
+            String refBag = osm.get(BagUtils.REF_BAG);
+            if (refBag != null && refBag.length() < 16) {
+                if (command == null) {
+                    command = new ChangeTagBatchCommand(osm.getDataSet(), BagUtils.REF_BAG);
+                }
+                command.add(osm, BagUtils.normalizeRefBag(refBag));
+            }
+        }
+        return command;
+    }
+}
@@ -20,8 +20,12 @@ public class ValidationData {
     }
 
     public void add(AddressNode addressNode) {
+        Address address = addressNode.getAddress();
+        if (address.getFullHouseNumber() == null) {
+            return;
+        }
         PcHnrKey pcHnrKey = new PcHnrKey(addressNode);
-        if (addressNode.getAddress().getPostCode() != null) {
+        if (address.getPostCode() != null) {
             AddressNode existing = pcHnrIndex.put(pcHnrKey, addressNode);
             if (existing != null && existing != addressNode) {
                 Set<AddressNode> duplicates = duplicatesByPcHnr.get(pcHnrKey);
@@ -33,6 +37,9 @@ public class ValidationData {
                 duplicates.add(addressNode);
             }
         }
+        if (address.getStreetName() == null) {
+            return;
+        }
         StreetHnrKey streetHnrKey = new StreetHnrKey(addressNode);
         AddressNode existing = streetHnrIndex.put(streetHnrKey, addressNode);
         if (existing != null && existing != addressNode &&
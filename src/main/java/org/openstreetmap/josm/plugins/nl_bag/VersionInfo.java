@@ -0,0 +1,115 @@
+package org.openstreetmap.josm.plugins.nl_bag;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Reads the plug-in version information, using a copy cached on disk while it is recent enough.
+ * Any URL supported by {@link URLConnection} can be used, e.g. a local file for testing.
+ */
+public class VersionInfo {
+    private static final int TIMEOUT = 5000;
+
+    private final URL url;
+    private final File cacheFile;
+    private final long maxAge;
+
+    /**
+     * @param url the location of versions.json
+     * @param cacheFile the file to cache the downloaded data in
+     * @param maxAge time in milliseconds after which the cached data is downloaded again
+     */
+    public VersionInfo(URL url, File cacheFile, long maxAge) {
+        this.url = url;
+        this.cacheFile = cacheFile;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return the nl-bag version information, with at least the latest version
+     * @throws IOException if no valid information can be downloaded and no valid cached copy exists
+     */
+    public JsonObject read() throws IOException {
+        if (cacheFile.isFile() && System.currentTimeMillis() - cacheFile.lastModified() < maxAge) {
+            try {
+                return parse(Files.readAllBytes(cacheFile.toPath()));
+            } catch (IOException e) {
+                Logging.debug("NL-BAG cached version info not usable: " + e.getMessage());
+            }
+        }
+        try {
+            byte[] data = download();
+            // only cache valid data, not e.g. the login page of a captive portal
+            JsonObject info = parse(data);
+            store(data);
+            return info;
+        } catch (IOException e) {
+            if (!cacheFile.isFile()) {
+                throw e;
+            }
+            // use outdated copy rather than nothing
+            Logging.debug("NL-BAG version info download failed: " + e.getMessage());
+            return parse(Files.readAllBytes(cacheFile.toPath()));
+        }
+    }
+
+    /**
+     * @param data the contents of versions.json
+     * @return the nl-bag version information
+     * @throws IOException if the data is not valid version information
+     */
+    static JsonObject parse(byte[] data) throws IOException {
+        try (JsonReader reader = Json.createReader(new ByteArrayInputStream(data))) {
+            JsonObject info = reader.readObject().getJsonObject("nl-bag");
+            JsonObject version = info == null ? null : info.getJsonObject("version");
+            if (version == null || version.getString("latest", null) == null) {
+                throw new IOException("no nl-bag version found");
+            }
+            return info;
+        } catch (JsonException | ClassCastException e) {
+            throw new IOException("invalid version info: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] download() throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        try (InputStream is = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private void store(byte[] data) {
+        try {
+            Path dir = cacheFile.getAbsoluteFile().getParentFile().toPath();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, cacheFile.getName(), ".tmp");
+            Files.write(tmp, data);
+            Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Logging.warn("NL-BAG version info could not be cached: " + e.getMessage());
+        }
+    }
+}
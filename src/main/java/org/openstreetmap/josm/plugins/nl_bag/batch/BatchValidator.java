@@ -0,0 +1,184 @@
+package org.openstreetmap.josm.plugins.nl_bag.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Headless duplicate ref:bag check of an OSM file, for scheduled checks of extracts.
+ * <p>
+ * The file is streamed twice without building a data set: the first pass collects the ref:bag values,
+ * the second pass only looks up the location of the first node of duplicate ways.
+ * <pre>
+ * java -cp josm.jar:nl-bag.jar org.openstreetmap.josm.plugins.nl_bag.batch.BatchValidator \
+ *     [--csv duplicates.csv] [--geojson duplicates.geojson] netherlands.osm.pbf
+ * </pre>
+ * Supported are OSM XML ({@code .osm}, {@code .osm.gz}) and PBF ({@code .osm.pbf}) files.
+ * Without output options the CSV is written to standard output.
+ */
+public final class BatchValidator {
+
+    private BatchValidator() {
+        // Hide default constructor
+    }
+
+    public static void main(String[] args) {
+        Path input = null;
+        Path csv = null;
+        Path geoJson = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("--csv".equals(args[i]) && i + 1 < args.length) {
+                csv = Paths.get(args[++i]);
+            } else if ("--geojson".equals(args[i]) && i + 1 < args.length) {
+                geoJson = Paths.get(args[++i]);
+            } else if (input == null && !args[i].startsWith("--")) {
+                input = Paths.get(args[i]);
+            } else {
+                input = null;
+                break;
+            }
+        }
+        if (input == null) {
+            System.err.println("Usage: BatchValidator [--csv <file>] [--geojson <file>] <file.osm|file.osm.gz|file.osm.pbf>");
+            System.exit(2);
+            return;
+        }
+        try {
+            int duplicates = run(input, csv, geoJson);
+            System.err.println(duplicates + " duplicate ref:bag values in " + input);
+        } catch (IOException e) {
+            System.err.println("Validation of " + input + " failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check a file for duplicate ref:bag values.
+     * @param input the OSM file
+     * @param csv the CSV output file, may be null
+     * @param geoJson the GeoJSON output file, may be null
+     * @return the number of duplicate ref:bag values
+     * @throws IOException if the file can't be read or the output can't be written
+     */
+    public static int run(Path input, Path csv, Path geoJson) throws IOException {
+        RefBagCollector collector = new RefBagCollector();
+        read(input, collector);
+        List<int[]> duplicates = collector.getDuplicates();
+
+        NodeLocations nodeLocations = new NodeLocations(getFirstNodes(collector, duplicates));
+        if (nodeLocations.size() > 0) {
+            read(input, nodeLocations);
+        }
+        DuplicateReport report = new DuplicateReport(collector, duplicates, nodeLocations::getLocation);
+
+        if (csv == null && geoJson == null) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            report.writeCsv(writer);
+            writer.flush();
+        }
+        if (csv != null) {
+            try (Writer writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                report.writeCsv(writer);
+            }
+        }
+        if (geoJson != null) {
+            try (Writer writer = Files.newBufferedWriter(geoJson, StandardCharsets.UTF_8)) {
+                report.writeGeoJson(writer);
+            }
+        }
+        return duplicates.size();
+    }
+
+    private static void read(Path input, OsmStreamHandler handler) throws IOException {
+        String name = input.getFileName().toString().toLowerCase();
+        try (InputStream in = open(input, name)) {
+            if (name.endsWith(".pbf")) {
+                new OsmPbfStreamReader().read(in, handler);
+            } else {
+                new OsmXmlStreamReader().read(in, handler);
+            }
+        }
+    }
+
+    private static InputStream open(Path input, String name) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(input), 1 << 16);
+        return name.endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    private static long[] getFirstNodes(RefBagCollector collector, List<int[]> duplicates) {
+        long[] nodeIds = new long[16];
+        int count = 0;
+        for (int[] group : duplicates) {
+            for (int index : group) {
+                if (collector.getType(index) == RefBagCollector.WAY
+                        && collector.getLocation(index) != RefBagCollector.NO_LOCATION) {
+                    if (count == nodeIds.length) {
+                        nodeIds = Arrays.copyOf(nodeIds, count * 2);
+                    }
+                    nodeIds[count++] = collector.getLocation(index);
+                }
+            }
+        }
+        nodeIds = Arrays.copyOf(nodeIds, count);
+        Arrays.sort(nodeIds);
+        return nodeIds;
+    }
+
+    /**
+     * Second pass handler, remembers the coordinates of a sorted set of nodes.
+     */
+    private static final class NodeLocations implements OsmStreamHandler {
+        private final long[] nodeIds;
+        private final long[] coors;
+
+        NodeLocations(long[] nodeIds) {
+            this.nodeIds = nodeIds;
+            this.coors = new long[nodeIds.length];
+            Arrays.fill(coors, RefBagCollector.NO_LOCATION);
+        }
+
+        int size() {
+            return nodeIds.length;
+        }
+
+        long getLocation(long nodeId) {
+            int i = Arrays.binarySearch(nodeIds, nodeId);
+            return i < 0 ? RefBagCollector.NO_LOCATION : coors[i];
+        }
+
+        @Override
+        public void node(long id, double lat, double lon, StreamTags tags) {
+            int i = Arrays.binarySearch(nodeIds, id);
+            if (i >= 0 && !Double.isNaN(lat) && !Double.isNaN(lon)) {
+                long coor = RefBagCollector.packCoor(lat, lon);
+                // the same node may be the first node of several ways
+                for (int j = i; j >= 0 && nodeIds[j] == id; j--) {
+                    coors[j] = coor;
+                }
+                for (int j = i + 1; j < nodeIds.length && nodeIds[j] == id; j++) {
+                    coors[j] = coor;
+                }
+            }
+        }
+
+        @Override
+        public void way(long id, long[] nodes, int nodeCount, StreamTags tags) {
+            // only nodes are needed
+        }
+
+        @Override
+        public void relation(long id, StreamTags tags) {
+            // only nodes are needed
+        }
+    }
+}
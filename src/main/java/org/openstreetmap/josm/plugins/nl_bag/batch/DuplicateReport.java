@@ -0,0 +1,122 @@
+package org.openstreetmap.josm.plugins.nl_bag.batch;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the duplicate ref:bag groups found by a {@link RefBagCollector} as CSV or GeoJSON.
+ * Every primitive of a group is one row or feature, located at the node or the first node of the way.
+ */
+class DuplicateReport {
+    private static final String[] TYPE_NAMES = {"node", "way", "relation"};
+
+    private final RefBagCollector collector;
+    private final List<int[]> duplicates;
+    private final WayLocations wayLocations;
+
+    /**
+     * Resolves the location of a way from the id of its first node.
+     */
+    interface WayLocations {
+        long getLocation(long firstNodeId);
+    }
+
+    DuplicateReport(RefBagCollector collector, List<int[]> duplicates, WayLocations wayLocations) {
+        this.collector = collector;
+        this.duplicates = duplicates;
+        this.wayLocations = wayLocations;
+    }
+
+    void writeCsv(Writer writer) throws IOException {
+        writer.write("ref:bag,type,id,lat,lon,duplicates\n");
+        for (int[] group : duplicates) {
+            for (int index : group) {
+                long coor = getCoor(index);
+                writer.write(csv(collector.getRefBag(index)));
+                writer.write(',');
+                writer.write(TYPE_NAMES[collector.getType(index)]);
+                writer.write(',');
+                writer.write(Long.toString(collector.getId(index)));
+                writer.write(',');
+                if (coor != RefBagCollector.NO_LOCATION) {
+                    writer.write(formatCoor(RefBagCollector.unpackLat(coor)));
+                    writer.write(',');
+                    writer.write(formatCoor(RefBagCollector.unpackLon(coor)));
+                } else {
+                    writer.write(',');
+                }
+                writer.write(',');
+                writer.write(Integer.toString(group.length));
+                writer.write('\n');
+            }
+        }
+    }
+
+    void writeGeoJson(Writer writer) throws IOException {
+        writer.write("{\"type\":\"FeatureCollection\",\"features\":[");
+        boolean first = true;
+        for (int[] group : duplicates) {
+            for (int index : group) {
+                writer.write(first ? "\n" : ",\n");
+                first = false;
+                long coor = getCoor(index);
+                writer.write("{\"type\":\"Feature\",\"geometry\":");
+                if (coor != RefBagCollector.NO_LOCATION) {
+                    writer.write("{\"type\":\"Point\",\"coordinates\":[");
+                    writer.write(formatCoor(RefBagCollector.unpackLon(coor)));
+                    writer.write(',');
+                    writer.write(formatCoor(RefBagCollector.unpackLat(coor)));
+                    writer.write("]}");
+                } else {
+                    writer.write("null");
+                }
+                writer.write(",\"properties\":{\"ref:bag\":");
+                writer.write(json(collector.getRefBag(index)));
+                writer.write(",\"type\":\"");
+                writer.write(TYPE_NAMES[collector.getType(index)]);
+                writer.write("\",\"id\":");
+                writer.write(Long.toString(collector.getId(index)));
+                writer.write(",\"duplicates\":");
+                writer.write(Integer.toString(group.length));
+                writer.write("}}");
+            }
+        }
+        writer.write("\n]}\n");
+    }
+
+    private long getCoor(int index) {
+        long location = collector.getLocation(index);
+        if (collector.getType(index) == RefBagCollector.WAY && location != RefBagCollector.NO_LOCATION) {
+            return wayLocations.getLocation(location);
+        }
+        return location;
+    }
+
+    private static String formatCoor(double value) {
+        return String.format(Locale.ROOT, "%.7f", value);
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String json(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,372 @@
+package org.openstreetmap.josm.plugins.nl_bag.batch;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streams the primitives of an OSM PBF file, one file block at a time.
+ * Only uncompressed and zlib compressed blocks are supported, which is what the common tools write.
+ * @see <a href="https://wiki.openstreetmap.org/wiki/PBF_Format">PBF Format</a>
+ */
+class OsmPbfStreamReader {
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+    private static final List<String> SUPPORTED_FEATURES = Arrays.asList("OsmSchema-V0.6", "DenseNodes");
+
+    private final StreamTags tags = new StreamTags();
+    private final Inflater inflater = new Inflater();
+    private long[] longBuffer = new long[256];
+
+    void read(InputStream in, OsmStreamHandler handler) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        try {
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = data.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+                    throw new IOException("Invalid PBF block header size " + headerSize);
+                }
+                byte[] header = new byte[headerSize];
+                data.readFully(header);
+                String type = null;
+                int blobSize = 0;
+                ProtoReader reader = new ProtoReader(header, 0, headerSize);
+                while (reader.hasNext()) {
+                    int tag = reader.readTag();
+                    switch (tag) {
+                    case 1 << 3 | ProtoReader.LENGTH_DELIMITED:
+                        type = reader.readString();
+                        break;
+                    case 3 << 3 | ProtoReader.VARINT:
+                        blobSize = (int) reader.readVarint();
+                        break;
+                    default:
+                        reader.skip(tag & 7);
+                    }
+                }
+                if (blobSize < 0 || blobSize > MAX_BLOB_SIZE) {
+                    throw new IOException("Invalid PBF blob size " + blobSize);
+                }
+                byte[] blob = new byte[blobSize];
+                data.readFully(blob);
+                if ("OSMHeader".equals(type)) {
+                    checkHeader(decodeBlob(blob));
+                } else if ("OSMData".equals(type)) {
+                    readPrimitiveBlock(decodeBlob(blob), handler);
+                }
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DataFormatException e) {
+            throw new IOException("Invalid PBF file: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private byte[] decodeBlob(byte[] blob) throws IOException, DataFormatException {
+        ProtoReader reader = new ProtoReader(blob, 0, blob.length);
+        int rawSize = -1;
+        ProtoReader raw = null;
+        ProtoReader zlib = null;
+        while (reader.hasNext()) {
+            int tag = reader.readTag();
+            switch (tag) {
+            case 1 << 3 | ProtoReader.LENGTH_DELIMITED:
+                raw = reader.readMessage();
+                break;
+            case 2 << 3 | ProtoReader.VARINT:
+                rawSize = (int) reader.readVarint();
+                break;
+            case 3 << 3 | ProtoReader.LENGTH_DELIMITED:
+                zlib = reader.readMessage();
+                break;
+            default:
+                if ((tag & 7) == ProtoReader.LENGTH_DELIMITED) {
+                    throw new IOException("Unsupported PBF compression, field " + (tag >>> 3));
+                }
+                reader.skip(tag & 7);
+            }
+        }
+        if (raw != null) {
+            return Arrays.copyOfRange(raw.getBuffer(), raw.getPosition(), raw.getLimit());
+        }
+        if (zlib == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+            throw new IOException("Invalid PBF blob");
+        }
+        byte[] result = new byte[rawSize];
+        inflater.reset();
+        inflater.setInput(zlib.getBuffer(), zlib.getPosition(), zlib.getLimit() - zlib.getPosition());
+        int length = 0;
+        while (length < rawSize && !inflater.finished()) {
+            int n = inflater.inflate(result, length, rawSize - length);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            length += n;
+        }
+        if (length != rawSize) {
+            throw new IOException("Invalid PBF blob, size " + length + " instead of " + rawSize);
+        }
+        return result;
+    }
+
+    private static void checkHeader(byte[] data) throws IOException {
+        ProtoReader reader = new ProtoReader(data, 0, data.length);
+        while (reader.hasNext()) {
+            int tag = reader.readTag();
+            if (tag == (4 << 3 | ProtoReader.LENGTH_DELIMITED)) {
+                String feature = reader.readString();
+                if (!SUPPORTED_FEATURES.contains(feature)) {
+                    throw new IOException("Unsupported PBF feature " + feature);
+                }
+            } else {
+                reader.skip(tag & 7);
+            }
+        }
+    }
+
+    private void readPrimitiveBlock(byte[] data, OsmStreamHandler handler) {
+        List<String> strings = new ArrayList<>();
+        List<ProtoReader> groups = new ArrayList<>();
+        long granularity = 100;
+        long latOffset = 0;
+        long lonOffset = 0;
+        ProtoReader reader = new ProtoReader(data, 0, data.length);
+        while (reader.hasNext()) {
+            int tag = reader.readTag();
+            switch (tag) {
+            case 1 << 3 | ProtoReader.LENGTH_DELIMITED:
+                ProtoReader stringTable = reader.readMessage();
+                while (stringTable.hasNext()) {
+                    int stringTag = stringTable.readTag();
+                    if (stringTag == (1 << 3 | ProtoReader.LENGTH_DELIMITED)) {
+                        strings.add(stringTable.readString());
+                    } else {
+                        stringTable.skip(stringTag & 7);
+                    }
+                }
+                break;
+            case 2 << 3 | ProtoReader.LENGTH_DELIMITED:
+                // the offsets may follow the groups, read these later
+                groups.add(reader.readMessage());
+                break;
+            case 17 << 3 | ProtoReader.VARINT:
+                granularity = reader.readVarint();
+                break;
+            case 19 << 3 | ProtoReader.VARINT:
+                latOffset = reader.readVarint();
+                break;
+            case 20 << 3 | ProtoReader.VARINT:
+                lonOffset = reader.readVarint();
+                break;
+            default:
+                reader.skip(tag & 7);
+            }
+        }
+        Block block = new Block(strings.toArray(new String[0]), granularity, latOffset, lonOffset);
+        for (ProtoReader group : groups) {
+            while (group.hasNext()) {
+                int tag = group.readTag();
+                switch (tag) {
+                case 1 << 3 | ProtoReader.LENGTH_DELIMITED:
+                    readNode(group.readMessage(), block, handler);
+                    break;
+                case 2 << 3 | ProtoReader.LENGTH_DELIMITED:
+                    readDenseNodes(group.readMessage(), block, handler);
+                    break;
+                case 3 << 3 | ProtoReader.LENGTH_DELIMITED:
+                    readWay(group.readMessage(), block, handler);
+                    break;
+                case 4 << 3 | ProtoReader.LENGTH_DELIMITED:
+                    readRelation(group.readMessage(), block, handler);
+                    break;
+                default:
+                    group.skip(tag & 7);
+                }
+            }
+        }
+    }
+
+    private void readNode(ProtoReader reader, Block block, OsmStreamHandler handler) {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        ProtoReader keys = null;
+        ProtoReader values = null;
+        while (reader.hasNext()) {
+            int tag = reader.readTag();
+            switch (tag) {
+            case 1 << 3 | ProtoReader.VARINT:
+                id = reader.readSignedVarint();
+                break;
+            case 2 << 3 | ProtoReader.LENGTH_DELIMITED:
+                keys = reader.readMessage();
+                break;
+            case 3 << 3 | ProtoReader.LENGTH_DELIMITED:
+                values = reader.readMessage();
+                break;
+            case 8 << 3 | ProtoReader.VARINT:
+                lat = reader.readSignedVarint();
+                break;
+            case 9 << 3 | ProtoReader.VARINT:
+                lon = reader.readSignedVarint();
+                break;
+            default:
+                reader.skip(tag & 7);
+            }
+        }
+        readTags(keys, values, block);
+        handler.node(id, block.lat(lat), block.lon(lon), tags);
+    }
+
+    private void readDenseNodes(ProtoReader reader, Block block, OsmStreamHandler handler) {
+        ProtoReader ids = null;
+        ProtoReader lats = null;
+        ProtoReader lons = null;
+        ProtoReader keysValues = null;
+        while (reader.hasNext()) {
+            int tag = reader.readTag();
+            switch (tag) {
+            case 1 << 3 | ProtoReader.LENGTH_DELIMITED:
+                ids = reader.readMessage();
+                break;
+            case 8 << 3 | ProtoReader.LENGTH_DELIMITED:
+                lats = reader.readMessage();
+                break;
+            case 9 << 3 | ProtoReader.LENGTH_DELIMITED:
+                lons = reader.readMessage();
+                break;
+            case 10 << 3 | ProtoReader.LENGTH_DELIMITED:
+                keysValues = reader.readMessage();
+                break;
+            default:
+                reader.skip(tag & 7);
+            }
+        }
+        if (ids == null || lats == null || lons == null) {
+            return;
+        }
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        while (ids.hasNext()) {
+            id += ids.readSignedVarint();
+            lat += lats.readSignedVarint();
+            lon += lons.readSignedVarint();
+            tags.clear();
+            if (keysValues != null) {
+                // key and value string indexes, each node ends with a 0
+                while (keysValues.hasNext()) {
+                    int key = (int) keysValues.readVarint();
+                    if (key == 0) {
+                        break;
+                    }
+                    tags.add(block.strings[key], block.strings[(int) keysValues.readVarint()]);
+                }
+            }
+            handler.node(id, block.lat(lat), block.lon(lon), tags);
+        }
+    }
+
+    private void readWay(ProtoReader reader, Block block, OsmStreamHandler handler) {
+        long id = 0;
+        ProtoReader keys = null;
+        ProtoReader values = null;
+        int nodeCount = 0;
+        while (reader.hasNext()) {
+            int tag = reader.readTag();
+            switch (tag) {
+            case 1 << 3 | ProtoReader.VARINT:
+                id = reader.readVarint();
+                break;
+            case 2 << 3 | ProtoReader.LENGTH_DELIMITED:
+                keys = reader.readMessage();
+                break;
+            case 3 << 3 | ProtoReader.LENGTH_DELIMITED:
+                values = reader.readMessage();
+                break;
+            case 8 << 3 | ProtoReader.LENGTH_DELIMITED:
+                ProtoReader refs = reader.readMessage();
+                long ref = 0;
+                while (refs.hasNext()) {
+                    ref += refs.readSignedVarint();
+                    if (nodeCount == longBuffer.length) {
+                        longBuffer = Arrays.copyOf(longBuffer, nodeCount * 2);
+                    }
+                    longBuffer[nodeCount++] = ref;
+                }
+                break;
+            default:
+                reader.skip(tag & 7);
+            }
+        }
+        readTags(keys, values, block);
+        handler.way(id, longBuffer, nodeCount, tags);
+    }
+
+    private void readRelation(ProtoReader reader, Block block, OsmStreamHandler handler) {
+        long id = 0;
+        ProtoReader keys = null;
+        ProtoReader values = null;
+        while (reader.hasNext()) {
+            int tag = reader.readTag();
+            switch (tag) {
+            case 1 << 3 | ProtoReader.VARINT:
+                id = reader.readVarint();
+                break;
+            case 2 << 3 | ProtoReader.LENGTH_DELIMITED:
+                keys = reader.readMessage();
+                break;
+            case 3 << 3 | ProtoReader.LENGTH_DELIMITED:
+                values = reader.readMessage();
+                break;
+            default:
+                reader.skip(tag & 7);
+            }
+        }
+        readTags(keys, values, block);
+        handler.relation(id, tags);
+    }
+
+    private void readTags(ProtoReader keys, ProtoReader values, Block block) {
+        tags.clear();
+        if (keys == null || values == null) {
+            return;
+        }
+        while (keys.hasNext() && values.hasNext()) {
+            tags.add(block.strings[(int) keys.readVarint()], block.strings[(int) values.readVarint()]);
+        }
+    }
+
+    private static final class Block {
+        final String[] strings;
+        final long granularity;
+        final long latOffset;
+        final long lonOffset;
+
+        Block(String[] strings, long granularity, long latOffset, long lonOffset) {
+            this.strings = strings;
+            this.granularity = granularity;
+            this.latOffset = latOffset;
+            this.lonOffset = lonOffset;
+        }
+
+        double lat(long lat) {
+            return 1e-9 * (latOffset + granularity * lat);
+        }
+
+        double lon(long lon) {
+            return 1e-9 * (lonOffset + granularity * lon);
+        }
+    }
+}
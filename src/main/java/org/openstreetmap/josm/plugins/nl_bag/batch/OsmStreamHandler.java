@@ -0,0 +1,13 @@
+package org.openstreetmap.josm.plugins.nl_bag.batch;
+
+/**
+ * Receives the primitives of an OSM file one by one, without building a data set.
+ * The tag and node buffers are reused by the reader and are only valid during the call.
+ */
+interface OsmStreamHandler {
+    void node(long id, double lat, double lon, StreamTags tags);
+
+    void way(long id, long[] nodes, int nodeCount, StreamTags tags);
+
+    void relation(long id, StreamTags tags);
+}
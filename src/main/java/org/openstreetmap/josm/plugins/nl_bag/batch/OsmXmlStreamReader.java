@@ -0,0 +1,100 @@
+package org.openstreetmap.josm.plugins.nl_bag.batch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streams the primitives of an OSM XML file. Deleted primitives of JOSM files are skipped.
+ */
+class OsmXmlStreamReader {
+    private final StreamTags tags = new StreamTags();
+    private long[] nodes = new long[256];
+    private int nodeCount;
+    private long id;
+    private double lat;
+    private double lon;
+    private boolean deleted;
+
+    void read(InputStream in, OsmStreamHandler handler) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader parser = factory.createXMLStreamReader(in);
+            try {
+                read(parser, handler);
+            } finally {
+                parser.close();
+            }
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Invalid OSM XML: " + e.getMessage(), e);
+        }
+    }
+
+    private void read(XMLStreamReader parser, OsmStreamHandler handler) throws XMLStreamException {
+        while (parser.hasNext()) {
+            int event = parser.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (parser.getLocalName()) {
+                case "node":
+                    startPrimitive(parser);
+                    lat = parseCoor(parser.getAttributeValue(null, "lat"));
+                    lon = parseCoor(parser.getAttributeValue(null, "lon"));
+                    break;
+                case "way":
+                case "relation":
+                    startPrimitive(parser);
+                    break;
+                case "tag":
+                    tags.add(parser.getAttributeValue(null, "k"), parser.getAttributeValue(null, "v"));
+                    break;
+                case "nd":
+                    addNode(Long.parseLong(parser.getAttributeValue(null, "ref")));
+                    break;
+                default:
+                    break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && !deleted) {
+                switch (parser.getLocalName()) {
+                case "node":
+                    handler.node(id, lat, lon, tags);
+                    break;
+                case "way":
+                    handler.way(id, nodes, nodeCount, tags);
+                    break;
+                case "relation":
+                    handler.relation(id, tags);
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+    }
+
+    private void startPrimitive(XMLStreamReader parser) {
+        id = Long.parseLong(parser.getAttributeValue(null, "id"));
+        deleted = "delete".equals(parser.getAttributeValue(null, "action"))
+                || "false".equals(parser.getAttributeValue(null, "visible"));
+        tags.clear();
+        nodeCount = 0;
+    }
+
+    private static double parseCoor(String value) {
+        // incomplete nodes of JOSM files have no coordinates
+        return value == null ? Double.NaN : Double.parseDouble(value);
+    }
+
+    private void addNode(long ref) {
+        if (nodeCount == nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodeCount * 2);
+        }
+        nodes[nodeCount++] = ref;
+    }
+}
@@ -0,0 +1,106 @@
+package org.openstreetmap.josm.plugins.nl_bag.batch;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal protocol buffers decoder over a byte array, as needed for the OSM PBF format.
+ */
+final class ProtoReader {
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LENGTH_DELIMITED = 2;
+    static final int FIXED32 = 5;
+
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+
+    ProtoReader(byte[] buf, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buf.length) {
+            throw new IllegalArgumentException("Malformed protocol buffer: length " + length);
+        }
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    boolean hasNext() {
+        return pos < limit;
+    }
+
+    /**
+     * @return the field number and wire type, field number is {@code tag >>> 3}, wire type is {@code tag & 7}
+     */
+    int readTag() {
+        return (int) readVarint();
+    }
+
+    long readVarint() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw new IllegalArgumentException("Malformed protocol buffer: truncated varint");
+            }
+            byte b = buf[pos++];
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed protocol buffer: varint too long");
+    }
+
+    long readSignedVarint() {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @return a reader for an embedded message or packed repeated field
+     */
+    ProtoReader readMessage() {
+        long length = readVarint();
+        if (length > limit - pos) {
+            throw new IllegalArgumentException("Malformed protocol buffer: length " + length);
+        }
+        ProtoReader reader = new ProtoReader(buf, pos, (int) length);
+        pos += (int) length;
+        return reader;
+    }
+
+    String readString() {
+        ProtoReader reader = readMessage();
+        return new String(buf, reader.pos, reader.limit - reader.pos, StandardCharsets.UTF_8);
+    }
+
+    byte[] getBuffer() {
+        return buf;
+    }
+
+    int getPosition() {
+        return pos;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    void skip(int wireType) {
+        switch (wireType) {
+        case VARINT:
+            readVarint();
+            break;
+        case FIXED64:
+            pos += 8;
+            break;
+        case LENGTH_DELIMITED:
+            readMessage();
+            break;
+        case FIXED32:
+            pos += 4;
+            break;
+        default:
+            throw new IllegalArgumentException("Malformed protocol buffer: wire type " + wireType);
+        }
+    }
+}
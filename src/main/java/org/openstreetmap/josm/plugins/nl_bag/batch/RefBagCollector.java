@@ -0,0 +1,159 @@
+package org.openstreetmap.josm.plugins.nl_bag.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.openstreetmap.josm.plugins.nl_bag.BagUtils;
+
+/**
+ * Collects the ref:bag of streamed primitives in parallel primitive arrays and finds the duplicates,
+ * with the same ref:bag matching as {@link org.openstreetmap.josm.plugins.nl_bag.BagValidationData}.
+ * Per primitive only the numeric ref:bag, the id, the type and a location are kept,
+ * so a whole country fits in a few hundred megabytes.
+ */
+class RefBagCollector implements OsmStreamHandler {
+    static final byte NODE = 0;
+    static final byte WAY = 1;
+    static final byte RELATION = 2;
+    static final long NO_LOCATION = Long.MIN_VALUE;
+
+    private long[] refBags = new long[1024];
+    private long[] ids = new long[1024];
+    private byte[] types = new byte[1024];
+    // node: packed coordinate, way: id of the first node
+    private long[] locations = new long[1024];
+    private int size;
+    // ref:bag values which are not a number, compared as text
+    private final Map<String, List<Integer>> otherRefBags = new HashMap<>();
+
+    @Override
+    public void node(long id, double lat, double lon, StreamTags tags) {
+        add(tags, NODE, id, Double.isNaN(lat) || Double.isNaN(lon) ? NO_LOCATION : packCoor(lat, lon));
+    }
+
+    @Override
+    public void way(long id, long[] nodes, int nodeCount, StreamTags tags) {
+        add(tags, WAY, id, nodeCount == 0 ? NO_LOCATION : nodes[0]);
+    }
+
+    @Override
+    public void relation(long id, StreamTags tags) {
+        add(tags, RELATION, id, NO_LOCATION);
+    }
+
+    private void add(StreamTags tags, byte type, long id, long location) {
+        String refBag = tags.get(BagUtils.REF_BAG);
+        if (refBag == null) {
+            return;
+        }
+        long key = BagUtils.parseRefBag(refBag);
+        if (key < 0) {
+            otherRefBags.computeIfAbsent(BagUtils.normalizeRefBag(refBag), k -> new ArrayList<>(1)).add(size);
+        }
+        if (size == refBags.length) {
+            int capacity = size + (size >> 1);
+            refBags = Arrays.copyOf(refBags, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            types = Arrays.copyOf(types, capacity);
+            locations = Arrays.copyOf(locations, capacity);
+        }
+        refBags[size] = key;
+        ids[size] = id;
+        types[size] = type;
+        locations[size] = location;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the duplicate groups, each one an array of entry indexes, ordered by ref:bag
+     */
+    List<int[]> getDuplicates() {
+        long[] duplicateKeys = getDuplicateKeys();
+        List<List<Integer>> groups = new ArrayList<>(duplicateKeys.length);
+        for (int i = 0; i < duplicateKeys.length; i++) {
+            groups.add(new ArrayList<>(2));
+        }
+        for (int i = 0; i < size; i++) {
+            int group = refBags[i] < 0 ? -1 : Arrays.binarySearch(duplicateKeys, refBags[i]);
+            if (group >= 0) {
+                groups.get(group).add(i);
+            }
+        }
+        for (Entry<String, List<Integer>> entry : otherRefBags.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                groups.add(entry.getValue());
+            }
+        }
+
+        List<int[]> result = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups) {
+            result.add(group.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return result;
+    }
+
+    private long[] getDuplicateKeys() {
+        // sorting a copy finds the duplicate keys without a hash map over all entries
+        long[] sorted = Arrays.copyOf(refBags, size);
+        Arrays.sort(sorted);
+        long[] duplicateKeys = new long[16];
+        int count = 0;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] >= 0 && sorted[i] == sorted[i - 1] && (count == 0 || duplicateKeys[count - 1] != sorted[i])) {
+                if (count == duplicateKeys.length) {
+                    duplicateKeys = Arrays.copyOf(duplicateKeys, count * 2);
+                }
+                duplicateKeys[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(duplicateKeys, count);
+    }
+
+    /**
+     * @param index the entry index
+     * @return the ref:bag as normalized by the plug-in
+     */
+    String getRefBag(int index) {
+        if (refBags[index] >= 0) {
+            return BagUtils.formatRefBag(refBags[index]);
+        }
+        for (Entry<String, List<Integer>> entry : otherRefBags.entrySet()) {
+            if (entry.getValue().contains(index)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    long getId(int index) {
+        return ids[index];
+    }
+
+    byte getType(int index) {
+        return types[index];
+    }
+
+    long getLocation(int index) {
+        return locations[index];
+    }
+
+    static long packCoor(double lat, double lon) {
+        return Math.round(lat * 1e7) << 32 | (Math.round(lon * 1e7) & 0xffffffffL);
+    }
+
+    static double unpackLat(long coor) {
+        return (coor >> 32) / 1e7;
+    }
+
+    static double unpackLon(long coor) {
+        return ((int) coor) / 1e7;
+    }
+}
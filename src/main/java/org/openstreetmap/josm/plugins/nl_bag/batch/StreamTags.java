@@ -0,0 +1,35 @@
+package org.openstreetmap.josm.plugins.nl_bag.batch;
+
+import java.util.Arrays;
+
+/**
+ * Reusable tag buffer of a streamed primitive.
+ */
+final class StreamTags {
+    private String[] keys = new String[16];
+    private String[] values = new String[16];
+    private int size;
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(String key, String value) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+    }
+
+    String get(String key) {
+        for (int i = 0; i < size; i++) {
+            if (key.equals(keys[i])) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,283 @@
+package org.openstreetmap.josm.plugins.nl_bag.prefetch;
+
+import java.awt.Shape;
+import java.io.File;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.DataSource;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSetMerger;
+import org.openstreetmap.josm.data.osm.DataSourceListener;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.event.DataSourceChangeEvent;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmTransferException;
+import org.openstreetmap.josm.plugins.nl_bag.BagMetrics;
+import org.openstreetmap.josm.plugins.nl_bag.DownloadPlanner;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Fetches the OSM data around a work area in the background, so later load_bag requests
+ * for the area can be served from the cache instead of waiting for the OSM API.
+ * <p>
+ * The data is fetched in tiles of a fixed grid, nearest to the center of the area first.
+ * The cache is bounded by the number of primitives and evicts the least recently used tiles.
+ * <p>
+ * Cached tiles expire after {@link #PREF_MAX_AGE}. Tiles are dropped when the data set they are merged into
+ * gets newer data of the tile, from a download or an upload, so outdated or purged objects are not merged back.
+ * Set {@link #PREF_SOURCE} to a directory to read the tiles from local files instead, see {@link FileTileSource}.
+ */
+public final class BagPrefetcher {
+    /** Preference with the maximum number of cached primitives */
+    public static final String PREF_CACHE_SIZE = "nl_bag.prefetch.cache.size";
+    /** Preference with the maximum number of tiles fetched for one request */
+    public static final String PREF_MAX_TILES = "nl_bag.prefetch.max_tiles";
+    /** Preference with a directory to read the tiles from instead of the OSM API */
+    public static final String PREF_SOURCE = "nl_bag.prefetch.source";
+    /** Preference with the time in seconds after which a cached tile expires */
+    public static final String PREF_MAX_AGE = "nl_bag.prefetch.max_age";
+    private static final int DEFAULT_CACHE_SIZE = 1_000_000;
+    private static final int DEFAULT_MAX_AGE = 1800;
+    // tiles of larger uploaded objects are dropped by range instead of one by one
+    private static final int MAX_OBJECT_TILES = 64;
+    private static final int DEFAULT_MAX_TILES = 400;
+    private static final String ORIGIN = "NL-BAG prefetch";
+    private static final BagPrefetcher INSTANCE = new BagPrefetcher();
+
+    private final TileGrid grid = new TileGrid(DownloadPlanner.DEFAULT_TILE_SIZE);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "nl_bag-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Long> queued = new HashSet<>();
+    // queued tiles which were invalidated while being fetched
+    private final Set<Long> stale = new HashSet<>();
+    private final Map<DataSet, Boolean> watched = new WeakHashMap<>();
+    private final DataSourceListener dataSourceListener = this::dataSourceChange;
+    private TileCache cache;
+
+    private BagPrefetcher() {
+        // singleton
+    }
+
+    public static BagPrefetcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param area an area in lon/lat coordinates
+     * @param margin the number of tiles to fetch around the area
+     * @return the maximum number of tiles fetched for the area, see {@link #getMaxTiles()}
+     */
+    public long getTileCount(Shape area, int margin) {
+        return grid.getTileCount(area, margin);
+    }
+
+    /**
+     * @return the maximum number of tiles fetched for one request
+     */
+    public static int getMaxTiles() {
+        return Config.getPref().getInt(PREF_MAX_TILES, DEFAULT_MAX_TILES);
+    }
+
+    /**
+     * Fetch the tiles of an area in the background.
+     * @param area the area in lon/lat coordinates
+     * @param margin the number of tiles to fetch around the area
+     * @return the number of tiles queued, tiles which are cached or queued already are skipped
+     * @throws IllegalArgumentException if the area has more than {@link #getMaxTiles()} tiles
+     */
+    public synchronized int prefetch(Shape area, int margin) {
+        // check before the tiles are listed, a large area would take too much time and memory
+        long tileCount = grid.getTileCount(area, margin);
+        if (tileCount > getMaxTiles()) {
+            throw new IllegalArgumentException("Area of " + tileCount + " tiles is larger than " + getMaxTiles() + " tiles");
+        }
+        long[] tiles = grid.getTiles(area, margin);
+        TileSource source = createSource();
+        TileCache tileCache = getCache();
+        int count = 0;
+        for (long key : tiles) {
+            if (!tileCache.contains(key) && queued.add(key)) {
+                executor.submit(() -> fetch(source, tileCache, key));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void fetch(TileSource source, TileCache tileCache, long key) {
+        BagMetrics.Timer timer = BagMetrics.timer(BagMetrics.PREFETCH_RUN);
+        long start = timer.start();
+        try {
+            long fetched = System.currentTimeMillis();
+            Bounds bounds = grid.getBounds(key);
+            DataSet ds = source.load(bounds, NullProgressMonitor.INSTANCE);
+            ds.addDataSource(new DataSource(bounds, ORIGIN));
+            synchronized (this) {
+                if (stale.contains(key)) {
+                    // the data may be older than the download or upload which invalidated the tile
+                    BagMetrics.counter(BagMetrics.PREFETCH_INVALIDATED).increment();
+                } else {
+                    tileCache.put(key, ds, fetched);
+                }
+            }
+        } catch (OsmTransferException | RuntimeException e) {
+            BagMetrics.counter(BagMetrics.PREFETCH_FAILED).increment();
+            Logging.warn("NL-BAG prefetch of tile {0} failed: {1}", grid.getBounds(key), e.getMessage());
+        } finally {
+            synchronized (this) {
+                queued.remove(key);
+                stale.remove(key);
+            }
+            timer.stop(start);
+        }
+    }
+
+    /**
+     * Get the cached data of an area. The area is only served if all its tiles are cached.
+     * @param bounds the area
+     * @return a copy of the data of the tiles covering the area, null if not all tiles are cached
+     */
+    public DataSet get(Bounds bounds) {
+        long[] tiles = grid.getTiles(bounds);
+        TileCache tileCache = getCache();
+        DataSet[] cached = new DataSet[tiles.length];
+        for (int i = 0; i < tiles.length; i++) {
+            cached[i] = tileCache.get(tiles[i]);
+            if (cached[i] == null) {
+                BagMetrics.counter(BagMetrics.PREFETCH_MISS).increment();
+                return null;
+            }
+        }
+        DataSet result = new DataSet();
+        for (DataSet ds : cached) {
+            // the merger copies the primitives, the cached tiles are not changed
+            new DataSetMerger(result, ds).merge();
+        }
+        BagMetrics.counter(BagMetrics.PREFETCH_HIT).increment();
+        return result;
+    }
+
+    /**
+     * Drop the cached tiles when newer data of them is added to a data set. The data sources which the data set
+     * already has are treated as newer than the cached tiles.
+     * @param ds the data set the cached tiles are merged into
+     */
+    public synchronized void watch(DataSet ds) {
+        if (watched.put(ds, Boolean.TRUE) == null) {
+            ds.addDataSourceListener(dataSourceListener);
+            for (DataSource source : ds.getDataSources()) {
+                if (!ORIGIN.equals(source.origin)) {
+                    invalidate(source.bounds);
+                }
+            }
+        }
+    }
+
+    private void dataSourceChange(DataSourceChangeEvent event) {
+        for (DataSource source : event.getAdded()) {
+            // merged cached tiles don't make other tiles outdated
+            if (!ORIGIN.equals(source.origin)) {
+                invalidate(source.bounds);
+            }
+        }
+    }
+
+    /**
+     * Drop the cached tiles overlapping an area, and don't cache the tiles of the area which are being fetched.
+     * @param bounds the area with newer data
+     */
+    public synchronized void invalidate(Bounds bounds) {
+        invalidate(grid.getFilter(bounds));
+    }
+
+    /**
+     * Drop the cached tiles of changed objects, e.g. before an upload.
+     * @param primitives the changed objects
+     */
+    public synchronized void invalidate(Collection<? extends OsmPrimitive> primitives) {
+        if (getCache().getTileCount() == 0 && queued.isEmpty()) {
+            return;
+        }
+        Set<Long> keys = new HashSet<>();
+        for (OsmPrimitive osm : primitives) {
+            BBox bbox = osm.getBBox();
+            if (bbox == null || !bbox.isValid()) {
+                continue;
+            }
+            Bounds bounds = new Bounds(bbox.getBottomRightLat(), bbox.getTopLeftLon(), bbox.getTopLeftLat(), bbox.getBottomRightLon());
+            if (grid.getTileCount(bounds.asRect(), 0) > MAX_OBJECT_TILES) {
+                invalidate(bounds);
+            } else {
+                for (long key : grid.getTiles(bounds)) {
+                    keys.add(key);
+                }
+            }
+        }
+        if (!keys.isEmpty()) {
+            invalidate(keys::contains);
+        }
+    }
+
+    private void invalidate(LongPredicate tiles) {
+        int dropped = getCache().removeIf(tiles);
+        for (long key : queued) {
+            if (tiles.test(key)) {
+                stale.add(key);
+            }
+        }
+        BagMetrics.counter(BagMetrics.PREFETCH_INVALIDATED).add(dropped);
+    }
+
+    /**
+     * @return the number of cached tiles
+     */
+    public int getCachedTiles() {
+        return getCache().getTileCount();
+    }
+
+    /**
+     * @return the number of cached primitives
+     */
+    public long getCachedPrimitives() {
+        return getCache().getSize();
+    }
+
+    /**
+     * Drop all cached tiles.
+     */
+    public synchronized void clear() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    private synchronized TileCache getCache() {
+        if (cache == null) {
+            cache = new TileCache(Config.getPref().getLong(PREF_CACHE_SIZE, DEFAULT_CACHE_SIZE),
+                    TimeUnit.SECONDS.toMillis(Config.getPref().getInt(PREF_MAX_AGE, DEFAULT_MAX_AGE)));
+        }
+        return cache;
+    }
+
+    private static TileSource createSource() {
+        String dir = Config.getPref().get(PREF_SOURCE, "");
+        if (dir.isEmpty()) {
+            return new OsmApiTileSource();
+        }
+        return new FileTileSource(new File(dir), INSTANCE.grid);
+    }
+}
@@ -0,0 +1,43 @@
+package org.openstreetmap.josm.plugins.nl_bag.prefetch;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.io.OsmTransferException;
+
+/**
+ * Reads tiles from OSM files in a local directory, as a stand-in for the OSM API when testing.
+ * The file of a tile is named {@code <column>_<row>.osm} after its position in the {@link TileGrid},
+ * tiles without a file are empty.
+ */
+public class FileTileSource implements TileSource {
+    private final File directory;
+    private final TileGrid grid;
+
+    public FileTileSource(File directory, TileGrid grid) {
+        this.directory = directory;
+        this.grid = grid;
+    }
+
+    @Override
+    public DataSet load(Bounds tile, ProgressMonitor monitor) throws OsmTransferException {
+        long key = grid.getKey(tile.getCenter());
+        File file = new File(directory, TileGrid.getColumn(key) + "_" + TileGrid.getRow(key) + ".osm");
+        if (!file.isFile()) {
+            return new DataSet();
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            return OsmReader.parseDataSet(in, monitor);
+        } catch (IOException | IllegalDataException e) {
+            throw new OsmTransferException("Cannot read " + file, e);
+        }
+    }
+}
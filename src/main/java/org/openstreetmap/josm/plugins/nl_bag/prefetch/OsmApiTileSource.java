@@ -0,0 +1,19 @@
+package org.openstreetmap.josm.plugins.nl_bag.prefetch;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.io.BoundingBoxDownloader;
+import org.openstreetmap.josm.io.OsmTransferException;
+
+/**
+ * Reads tiles from the configured OSM API.
+ */
+public class OsmApiTileSource implements TileSource {
+
+    @Override
+    public DataSet load(Bounds tile, ProgressMonitor monitor) throws OsmTransferException {
+        DataSet ds = new BoundingBoxDownloader(tile).parseOsm(monitor);
+        return ds == null ? new DataSet() : ds;
+    }
+}
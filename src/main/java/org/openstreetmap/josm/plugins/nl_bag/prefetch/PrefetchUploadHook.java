@@ -0,0 +1,17 @@
+package org.openstreetmap.josm.plugins.nl_bag.prefetch;
+
+import org.openstreetmap.josm.actions.upload.UploadHook;
+import org.openstreetmap.josm.data.APIDataSet;
+
+/**
+ * Drops the prefetched tiles of uploaded objects. After the upload the cached data of these tiles is outdated,
+ * e.g. deleted objects are purged from the layer and would otherwise be merged back by a later load_bag.
+ */
+public class PrefetchUploadHook implements UploadHook {
+
+    @Override
+    public boolean checkUpload(APIDataSet apiDataSet) {
+        BagPrefetcher.getInstance().invalidate(apiDataSet.getPrimitives());
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package org.openstreetmap.josm.plugins.nl_bag.prefetch;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.plugins.nl_bag.BagMetrics;
+
+/**
+ * Least recently used cache of prefetched tiles, bounded by the total number of primitives.
+ * Tiles older than the maximum age are not served.
+ */
+class TileCache {
+    private final Map<Long, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxSize;
+    private final long maxAge;
+    private long size;
+
+    /**
+     * @param maxSize the maximum number of primitives in the cache
+     * @param maxAge the time in milliseconds after which a tile is expired
+     */
+    TileCache(long maxSize, long maxAge) {
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Add a tile, evicting the least recently used tiles when the cache is full.
+     * @param key the tile
+     * @param ds the data of the tile
+     * @param fetched the time the data was requested
+     */
+    synchronized void put(long key, DataSet ds, long fetched) {
+        Tile tile = new Tile(ds, fetched);
+        Tile old = tiles.put(key, tile);
+        if (old != null) {
+            size -= old.size;
+        }
+        size += tile.size;
+        Iterator<Tile> it = tiles.values().iterator();
+        // keep the new tile, even if it is larger than the cache
+        while (size > maxSize && tiles.size() > 1) {
+            Tile eldest = it.next();
+            it.remove();
+            size -= eldest.size;
+            BagMetrics.counter(BagMetrics.PREFETCH_EVICTED).increment();
+        }
+    }
+
+    /**
+     * @param key the tile
+     * @return the data of the tile, null if it is not cached or expired
+     */
+    synchronized DataSet get(long key) {
+        Tile tile = tiles.get(key);
+        if (tile != null && isExpired(tile)) {
+            remove(key);
+            BagMetrics.counter(BagMetrics.PREFETCH_EXPIRED).increment();
+            return null;
+        }
+        return tile == null ? null : tile.ds;
+    }
+
+    /**
+     * @param key the tile
+     * @return true if the tile is cached and not expired, without changing the eviction order
+     */
+    synchronized boolean contains(long key) {
+        Tile tile = tiles.get(key);
+        return tile != null && !isExpired(tile);
+    }
+
+    private boolean isExpired(Tile tile) {
+        return System.currentTimeMillis() - tile.fetched > maxAge;
+    }
+
+    /**
+     * @param key the tile to drop
+     */
+    synchronized void remove(long key) {
+        Tile tile = tiles.remove(key);
+        if (tile != null) {
+            size -= tile.size;
+        }
+    }
+
+    /**
+     * @param filter the tiles to drop
+     * @return the number of dropped tiles
+     */
+    synchronized int removeIf(LongPredicate filter) {
+        int count = 0;
+        for (Iterator<Map.Entry<Long, Tile>> it = tiles.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Long, Tile> entry = it.next();
+            if (filter.test(entry.getKey())) {
+                size -= entry.getValue().size;
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * @return the number of cached primitives
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized void clear() {
+        tiles.clear();
+        size = 0;
+    }
+
+    private static final class Tile {
+        final DataSet ds;
+        final int size;
+        final long fetched;
+
+        Tile(DataSet ds, long fetched) {
+            this.ds = ds;
+            this.size = ds.allPrimitives().size();
+            this.fetched = fetched;
+        }
+    }
+}
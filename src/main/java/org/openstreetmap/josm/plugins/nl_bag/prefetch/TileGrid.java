@@ -0,0 +1,145 @@
+package org.openstreetmap.josm.plugins.nl_bag.prefetch;
+
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+
+/**
+ * Fixed grid of prefetch tiles. A tile is identified by its column and row, packed in one long
+ * in the same way as the tiles of the {@link org.openstreetmap.josm.plugins.nl_bag.DownloadPlanner}.
+ */
+public final class TileGrid {
+    private final double tileSize;
+
+    /**
+     * @param tileSize the tile size in degrees
+     */
+    public TileGrid(double tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    public static long getKey(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+
+    public static int getColumn(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int getRow(long key) {
+        return (int) key;
+    }
+
+    /**
+     * @param ll a location
+     * @return the tile containing the location
+     */
+    public long getKey(LatLon ll) {
+        return getKey((int) Math.floor(ll.lon() / tileSize), (int) Math.floor(ll.lat() / tileSize));
+    }
+
+    /**
+     * @param key the tile
+     * @return the bounds of the tile
+     */
+    public Bounds getBounds(long key) {
+        double minLon = getColumn(key) * tileSize;
+        double minLat = getRow(key) * tileSize;
+        return new Bounds(minLat, minLon, minLat + tileSize, minLon + tileSize);
+    }
+
+    /**
+     * @param bounds an area
+     * @return the tiles overlapping the area
+     */
+    public long[] getTiles(Bounds bounds) {
+        int firstColumn = (int) Math.floor(bounds.getMinLon() / tileSize);
+        int lastColumn = Math.max(firstColumn, (int) Math.ceil(bounds.getMaxLon() / tileSize) - 1);
+        int firstRow = (int) Math.floor(bounds.getMinLat() / tileSize);
+        int lastRow = Math.max(firstRow, (int) Math.ceil(bounds.getMaxLat() / tileSize) - 1);
+        long[] keys = new long[(lastColumn - firstColumn + 1) * (lastRow - firstRow + 1)];
+        int i = 0;
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                keys[i++] = getKey(column, row);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @param bounds an area
+     * @return filter accepting the tiles overlapping the area, the same tiles as {@link #getTiles(Bounds)}
+     */
+    public LongPredicate getFilter(Bounds bounds) {
+        int firstColumn = (int) Math.floor(bounds.getMinLon() / tileSize);
+        int lastColumn = Math.max(firstColumn, (int) Math.ceil(bounds.getMaxLon() / tileSize) - 1);
+        int firstRow = (int) Math.floor(bounds.getMinLat() / tileSize);
+        int lastRow = Math.max(firstRow, (int) Math.ceil(bounds.getMaxLat() / tileSize) - 1);
+        return key -> {
+            int column = getColumn(key);
+            int row = getRow(key);
+            return column >= firstColumn && column <= lastColumn && row >= firstRow && row <= lastRow;
+        };
+    }
+
+    /**
+     * Get the number of tiles of the bounding box of an area, which is cheap to compute and
+     * never less than the number of tiles returned by {@link #getTiles(Shape, int)}.
+     * @param area an area in lon/lat coordinates
+     * @param margin the number of tiles to add around the area
+     * @return the number of tiles of the bounding box of the area and its margin
+     */
+    public long getTileCount(Shape area, int margin) {
+        Rectangle2D rect = area.getBounds2D();
+        long columns = Math.max(1, (long) Math.ceil(rect.getMaxX() / tileSize) - (long) Math.floor(rect.getMinX() / tileSize));
+        long rows = Math.max(1, (long) Math.ceil(rect.getMaxY() / tileSize) - (long) Math.floor(rect.getMinY() / tileSize));
+        return (columns + 2L * margin) * (rows + 2L * margin);
+    }
+
+    /**
+     * @param area an area in lon/lat coordinates
+     * @param margin the number of tiles to add around the area
+     * @return the tiles overlapping the area and its margin, nearest to the center of the area first
+     * @see #getTileCount(Shape, int)
+     */
+    public long[] getTiles(Shape area, int margin) {
+        Rectangle2D rect = area.getBounds2D();
+        int firstColumn = (int) Math.floor(rect.getMinX() / tileSize);
+        int lastColumn = Math.max(firstColumn, (int) Math.ceil(rect.getMaxX() / tileSize) - 1);
+        int firstRow = (int) Math.floor(rect.getMinY() / tileSize);
+        int lastRow = Math.max(firstRow, (int) Math.ceil(rect.getMaxY() / tileSize) - 1);
+        Set<Long> keys = new HashSet<>();
+        Rectangle2D tile = new Rectangle2D.Double();
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                tile.setRect(column * tileSize, row * tileSize, tileSize, tileSize);
+                if (!area.intersects(tile)) {
+                    continue;
+                }
+                for (int c = column - margin; c <= column + margin; c++) {
+                    for (int r = row - margin; r <= row + margin; r++) {
+                        keys.add(getKey(c, r));
+                    }
+                }
+            }
+        }
+        double centerX = rect.getCenterX() / tileSize - 0.5;
+        double centerY = rect.getCenterY() / tileSize - 0.5;
+        return keys.stream()
+                .sorted((a, b) -> Double.compare(distance(a, centerX, centerY), distance(b, centerX, centerY)))
+                .mapToLong(Long::longValue)
+                .toArray();
+    }
+
+    private static double distance(long key, double x, double y) {
+        double dx = getColumn(key) - x;
+        double dy = getRow(key) - y;
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,19 @@
+package org.openstreetmap.josm.plugins.nl_bag.prefetch;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.io.OsmTransferException;
+
+/**
+ * Source of the OSM data of one prefetch tile.
+ */
+public interface TileSource {
+    /**
+     * @param tile the bounds of the tile
+     * @param monitor the progress monitor
+     * @return the data in the tile, empty if there is none
+     * @throws OsmTransferException if the data cannot be read
+     */
+    DataSet load(Bounds tile, ProgressMonitor monitor) throws OsmTransferException;
+}
@@ -0,0 +1,234 @@
+package org.openstreetmap.josm.plugins.nl_bag.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.Timer;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
+import org.openstreetmap.josm.data.osm.event.DatasetEventManager;
+import org.openstreetmap.josm.data.osm.event.DatasetEventManager.FireMode;
+import org.openstreetmap.josm.data.preferences.sources.ValidatorPrefHelper;
+import org.openstreetmap.josm.data.validation.OsmValidator;
+import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.MapFrame;
+import org.openstreetmap.josm.gui.progress.AbstractProgressMonitor;
+import org.openstreetmap.josm.gui.progress.CancelHandler;
+import org.openstreetmap.josm.gui.progress.ProgressTaskId;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Runs the {@link DuplicateBag} check in the background after the edit data set changed.
+ * Changes are debounced, a run which is outdated by a new change is canceled, and the errors
+ * replace the previous duplicate BAG errors in the validator panel when the run is complete.
+ * The progress is shown in the status line.
+ * <p>
+ * A run reads the duplicates from the {@link org.openstreetmap.josm.plugins.nl_bag.DataSetBagIndex} of the
+ * data set, which is kept up to date from the edits, so the primitives are not visited again.
+ */
+public final class BackgroundBagValidator implements DataSetListenerAdapter.Listener {
+    /** Preference to check for duplicate BAG objects in the background after each edit */
+    public static final String PREF_ENABLED = "nl_bag.validation.background";
+    /** Preference with the time in milliseconds without changes before the check starts */
+    public static final String PREF_DELAY = "nl_bag.validation.background.delay";
+    private static final int DEFAULT_DELAY = 2000;
+
+    private static BackgroundBagValidator instance;
+
+    private final DataSetListenerAdapter adapter = new DataSetListenerAdapter(this);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "nl-bag-background-validation");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Timer timer;
+    // only accessed in the EDT
+    private ValidationRun current;
+
+    private BackgroundBagValidator() {
+        timer = new Timer(DEFAULT_DELAY, e -> start());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Start listening to changes of the edit data set.
+     */
+    public static synchronized void register() {
+        if (instance == null) {
+            instance = new BackgroundBagValidator();
+            DatasetEventManager.getInstance().addDatasetListener(instance.adapter, FireMode.IN_EDT_CONSOLIDATED);
+        }
+    }
+
+    @Override
+    public void processDatasetEvent(AbstractDatasetChangedEvent event) {
+        if (!Config.getPref().getBoolean(PREF_ENABLED, false) || !isTestEnabled()) {
+            return;
+        }
+        if (current != null) {
+            // the running check is outdated
+            current.monitor.cancel();
+            current = null;
+        }
+        timer.setInitialDelay(Config.getPref().getInt(PREF_DELAY, DEFAULT_DELAY));
+        timer.restart();
+    }
+
+    private void start() {
+        DataSet ds = MainApplication.getLayerManager().getEditDataSet();
+        if (ds == null) {
+            return;
+        }
+        if (current != null) {
+            current.monitor.cancel();
+        }
+        current = new ValidationRun(ds);
+        executor.submit(current);
+    }
+
+    /**
+     * @return true if the duplicate BAG test is enabled in the validator preferences
+     */
+    private static boolean isTestEnabled() {
+        DuplicateBag test = OsmValidator.getTest(DuplicateBag.class);
+        return test != null && test.enabled;
+    }
+
+    private void publish(ValidationRun run, List<TestError> errors) {
+        if (run != current) {
+            return;
+        }
+        current = null;
+        if (!isTestEnabled()) {
+            return;
+        }
+        int count = 0;
+        boolean useIgnored = ValidatorPrefHelper.PREF_USE_IGNORE.get();
+        for (TestError error : errors) {
+            // like the validator, ignored errors are kept but not shown
+            if (!useIgnored || !error.updateIgnored()) {
+                count++;
+            }
+        }
+        setStatus(tr("Duplicate BAG objects: {0}", count));
+        MapFrame map = MainApplication.getMap();
+        if (map == null || map.validatorDialog == null || MainApplication.getLayerManager().getEditDataSet() != run.ds) {
+            return;
+        }
+        List<TestError> merged = new ArrayList<>();
+        for (TestError error : map.validatorDialog.tree.getErrors()) {
+            if (!(error.getTester() instanceof DuplicateBag)) {
+                merged.add(error);
+            }
+        }
+        merged.addAll(errors);
+        OsmValidator.initializeErrorLayer();
+        map.validatorDialog.tree.setErrors(merged);
+        map.mapView.repaint();
+    }
+
+    private static void setStatus(String text) {
+        MapFrame map = MainApplication.getMap();
+        if (map != null && map.statusLine != null) {
+            map.statusLine.setHelpText(text);
+        }
+    }
+
+    private final class ValidationRun implements Runnable {
+        private final DataSet ds;
+        private final StatusLineProgressMonitor monitor = new StatusLineProgressMonitor();
+
+        ValidationRun(DataSet ds) {
+            this.ds = ds;
+        }
+
+        @Override
+        public void run() {
+            if (monitor.isCanceled()) {
+                return;
+            }
+            try {
+                DuplicateBag test = new DuplicateBag();
+                test.testIndex(ds, monitor);
+                if (!monitor.isCanceled()) {
+                    List<TestError> errors = new ArrayList<>(test.getErrors());
+                    GuiHelper.runInEDT(() -> publish(this, errors));
+                }
+            } catch (RuntimeException e) {
+                Logging.warn("NL-BAG background validation failed: " + e.getMessage());
+                Logging.debug(e);
+            }
+        }
+    }
+
+    /**
+     * Shows the progress of a background run in the status line, at most once per percent.
+     */
+    private static final class StatusLineProgressMonitor extends AbstractProgressMonitor {
+        private ProgressTaskId taskId;
+        private int percent = -1;
+
+        StatusLineProgressMonitor() {
+            super(new CancelHandler());
+        }
+
+        @Override
+        protected void updateProgress(double value) {
+            int newPercent = (int) (value * 100);
+            if (newPercent != percent) {
+                percent = newPercent;
+                GuiHelper.runInEDT(() -> setStatus(tr("Checking BAG objects: {0}%", newPercent)));
+            }
+        }
+
+        @Override
+        protected void doBeginTask() {
+            // progress is shown by updateProgress
+        }
+
+        @Override
+        protected void doFinishTask() {
+            // result is shown when published
+        }
+
+        @Override
+        protected void doSetIntermediate(boolean value) {
+            // not shown
+        }
+
+        @Override
+        protected void doSetTitle(String title) {
+            // not shown
+        }
+
+        @Override
+        protected void doSetCustomText(String title) {
+            // not shown
+        }
+
+        @Override
+        public void setProgressTaskId(ProgressTaskId taskId) {
+            this.taskId = taskId;
+        }
+
+        @Override
+        public ProgressTaskId getProgressTaskId() {
+            return taskId;
+        }
+
+        @Override
+        public Component getWindowParent() {
+            return MainApplication.getMainFrame();
+        }
+    }
+}
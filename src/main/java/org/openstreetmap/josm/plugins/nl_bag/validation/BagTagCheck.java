@@ -0,0 +1,84 @@
+package org.openstreetmap.josm.plugins.nl_bag.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.validation.Severity;
+import org.openstreetmap.josm.data.validation.Test;
+import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.plugins.nl_bag.BagFlags;
+import org.openstreetmap.josm.plugins.nl_bag.BagUtils;
+import org.openstreetmap.josm.tools.I18n;
+
+/**
+ * Checks the tags of BAG objects. All rules are evaluated in one pass: the {@link BagFlags} of a
+ * primitive are looked up once, and a rule is only evaluated if the flags match the rule.
+ */
+public class BagTagCheck extends Test {
+    public static final int INVALID_SOURCE_DATE = 13705;
+    public static final int CONSTRUCTION_WITHOUT_BUILDING = 13706;
+    public static final int MISSING_START_DATE = 13707;
+    public static final int MALFORMED_REF_BAG = 13708;
+
+    private final BagTagRule[] rules = createRules();
+
+    public BagTagCheck() {
+        super(tr("BAG tags"), tr("Checks the tags of BAG objects."));
+    }
+
+    private static BagTagRule[] createRules() {
+        return new BagTagRule[] {
+            new BagTagRule(MALFORMED_REF_BAG, Severity.WARNING, "Malformed ref:bag",
+                    BagFlags.BAG_OBJECT, 0,
+                    osm -> BagUtils.parseRefBag(osm.get(BagUtils.REF_BAG)) < 0
+                            ? I18n.tr("Malformed ref:bag {0}", osm.get(BagUtils.REF_BAG)) : null),
+            new BagTagRule(INVALID_SOURCE_DATE, Severity.WARNING, "Invalid BAG source:date",
+                    BagFlags.BAG_OBJECT, BagFlags.SOURCE_DATE,
+                    osm -> osm.hasKey(BagUtils.SOURCE_DATE)
+                            ? I18n.tr("Invalid source:date {0}", osm.get(BagUtils.SOURCE_DATE)) : null),
+            new BagTagRule(CONSTRUCTION_WITHOUT_BUILDING, Severity.WARNING, "BAG construction without building",
+                    BagFlags.BAG_OBJECT | BagFlags.CONSTRUCTION, BagFlags.BUILDING,
+                    osm -> I18n.tr("construction={0} without building", osm.get(BagUtils.CONSTRUCTION))),
+            new BagTagRule(MISSING_START_DATE, Severity.OTHER, "BAG building without start_date",
+                    BagFlags.BAG_OBJECT | BagFlags.BUILDING, BagFlags.START_DATE,
+                    osm -> I18n.tr("BAG building {0} without start_date", osm.get(BagUtils.REF_BAG))),
+        };
+    }
+
+    @Override
+    public void visit(Node n) {
+        check(n);
+    }
+
+    @Override
+    public void visit(Way w) {
+        check(w);
+    }
+
+    @Override
+    public void visit(Relation r) {
+        check(r);
+    }
+
+    private void check(OsmPrimitive osm) {
+        int flags = BagFlags.get(osm);
+        if ((flags & BagFlags.BAG_OBJECT) == 0) {
+            return;
+        }
+        for (BagTagRule rule : rules) {
+            if (rule.appliesTo(flags)) {
+                String description = rule.check(osm);
+                if (description != null) {
+                    errors.add(TestError
+                            .builder(this, rule.severity, rule.code)
+                            .message(rule.message, description)
+                            .primitives(osm)
+                            .build());
+                }
+            }
+        }
+    }
+}
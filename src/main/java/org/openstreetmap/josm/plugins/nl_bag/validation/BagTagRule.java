@@ -0,0 +1,54 @@
+package org.openstreetmap.josm.plugins.nl_bag.validation;
+
+import java.util.function.Function;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.validation.Severity;
+import org.openstreetmap.josm.plugins.nl_bag.BagFlags;
+
+/**
+ * A rule of the {@link BagTagCheck}. The rule is only evaluated for primitives having all its required
+ * {@link BagFlags} and none of its excluded flags.
+ */
+class BagTagRule {
+    final int code;
+    final Severity severity;
+    final String message;
+    final int required;
+    final int excluded;
+    private final Function<OsmPrimitive, String> check;
+
+    /**
+     * @param code the error code
+     * @param severity the severity of the error
+     * @param message the error message
+     * @param required the flags a primitive needs for the rule to apply
+     * @param excluded the flags a primitive must not have for the rule to apply
+     * @param check returns the description of the error, null if the primitive is valid
+     */
+    BagTagRule(int code, Severity severity, String message, int required, int excluded,
+            Function<OsmPrimitive, String> check) {
+        this.code = code;
+        this.severity = severity;
+        this.message = message;
+        this.required = required;
+        this.excluded = excluded;
+        this.check = check;
+    }
+
+    /**
+     * @param flags the flags of a primitive
+     * @return true if the rule applies to the primitive
+     */
+    boolean appliesTo(int flags) {
+        return (flags & required) == required && (flags & excluded) == 0;
+    }
+
+    /**
+     * @param osm a primitive the rule applies to
+     * @return the description of the error, null if the primitive is valid
+     */
+    String check(OsmPrimitive osm) {
+        return check.apply(osm);
+    }
+}
@@ -0,0 +1,146 @@
+package org.openstreetmap.josm.plugins.nl_bag.validation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.plugins.nl_bag.BagUtils;
+import org.openstreetmap.josm.spi.preferences.Config;
+
+/**
+ * Decides how the fixer merges the building tag of an original and a new BAG object.
+ * Building values are mapped to small codes once, the decision is then a lookup in a matrix
+ * of original value by new value.
+ * <p>
+ * The values used by the BAG import and the custom values which are retained over the BAG value
+ * can be changed with the preferences {@link #PREF_BAG_VALUES} and {@link #PREF_RETAINED_VALUES}.
+ */
+final class BuildingMergeTable {
+    /** Preference with the building values set by the BAG import */
+    static final String PREF_BAG_VALUES = "nl_bag.fixer.building.bag_values";
+    /** Preference with the custom building values which are probably better than the BAG value */
+    static final String PREF_RETAINED_VALUES = "nl_bag.fixer.building.retained_values";
+
+    /** Values are the same or the difference has to be handled manually */
+    static final byte NONE = 0;
+    /** Set the building value of the original object on the new object */
+    static final byte KEEP_ORIGINAL = 1;
+    /** Set the building value of the new object on the original object */
+    static final byte TAKE_NEW = 2;
+    /** Set the construction value of the original object as building value on both objects */
+    static final byte PROMOTE_CONSTRUCTION = 3;
+
+    static final List<String> DEFAULT_BAG_VALUES = Arrays.asList(
+            "yes", "house", "apartments", "office", "industrial", "retail");
+    static final List<String> DEFAULT_RETAINED_VALUES = Arrays.asList(
+            "barn", "bungalow", "bunker", "castle", "cathedral", "chapel", "church", "civic", "college",
+            "dormitory", "farm", "farm_auxiliary", "fire_station", "garage", "garages", "government",
+            "greenhouse", "hangar", "hospital", "hotel", "hut", "kindergarten", "monastery", "mosque",
+            "prison", "school", "service", "shed", "stable", "stadium", "storage_tank", "supermarket",
+            "synagogue", "temple", "train_station", "university", "warehouse");
+
+    // code of all values which are not in the table
+    private static final int OTHER = 0;
+
+    private static volatile BuildingMergeTable instance;
+    private static boolean listening;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    // [original building][new building]
+    private final byte[][] buildingActions;
+    // [original construction], when the new object is no longer under construction
+    private final byte[] constructionActions;
+
+    /**
+     * @param bagValues the building values set by the BAG import
+     * @param retainedValues the custom building values which are retained
+     */
+    BuildingMergeTable(List<String> bagValues, List<String> retainedValues) {
+        codes.put(BagUtils.YES, codes.size() + 1);
+        codes.put(BagUtils.CONSTRUCTION, codes.size() + 1);
+        for (String value : bagValues) {
+            codes.putIfAbsent(value, codes.size() + 1);
+        }
+        for (String value : retainedValues) {
+            codes.putIfAbsent(value, codes.size() + 1);
+        }
+        int size = codes.size() + 1;
+        buildingActions = new byte[size][size];
+        constructionActions = new byte[size];
+        Arrays.fill(constructionActions, PROMOTE_CONSTRUCTION);
+        for (String value : bagValues) {
+            // one of the default BAG values, just take the new value
+            constructionActions[codes.get(value)] = TAKE_NEW;
+        }
+
+        for (int newCode = 0; newCode < size; newCode++) {
+            // an existing building under construction is updated by BAG
+            fill(BagUtils.CONSTRUCTION, newCode, TAKE_NEW);
+            for (String value : bagValues) {
+                fill(value, newCode, TAKE_NEW);
+            }
+            // this custom value is probably better than BAG, so retain value
+            for (String value : retainedValues) {
+                if (!bagValues.contains(value)) {
+                    fill(value, newCode, KEEP_ORIGINAL);
+                }
+            }
+        }
+        // always use the existing value if the new value is 'yes'
+        int yes = codes.get(BagUtils.YES);
+        for (int originalCode = 0; originalCode < size; originalCode++) {
+            buildingActions[originalCode][yes] = KEEP_ORIGINAL;
+        }
+    }
+
+    private void fill(String originalValue, int newCode, byte action) {
+        buildingActions[codes.get(originalValue)][newCode] = action;
+    }
+
+    /**
+     * @return the table of the current preferences
+     */
+    static BuildingMergeTable getInstance() {
+        BuildingMergeTable table = instance;
+        if (table == null) {
+            synchronized (BuildingMergeTable.class) {
+                table = instance;
+                if (table == null) {
+                    table = new BuildingMergeTable(
+                            Config.getPref().getList(PREF_BAG_VALUES, DEFAULT_BAG_VALUES),
+                            Config.getPref().getList(PREF_RETAINED_VALUES, DEFAULT_RETAINED_VALUES));
+                    instance = table;
+                    if (!listening) {
+                        listening = true;
+                        Config.getPref().addKeyPreferenceChangeListener(PREF_BAG_VALUES, e -> instance = null);
+                        Config.getPref().addKeyPreferenceChangeListener(PREF_RETAINED_VALUES, e -> instance = null);
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    private int code(String value) {
+        Integer code = codes.get(value);
+        return code == null ? OTHER : code;
+    }
+
+    /**
+     * @param originalValue the building value of the original object
+     * @param newValue the different building value of the new object
+     * @return {@link #KEEP_ORIGINAL}, {@link #TAKE_NEW} or {@link #NONE}
+     */
+    byte getBuildingAction(String originalValue, String newValue) {
+        return buildingActions[code(originalValue)][code(newValue)];
+    }
+
+    /**
+     * @param constructionValue the construction value of the original object
+     * @return {@link #TAKE_NEW} or {@link #PROMOTE_CONSTRUCTION}
+     */
+    byte getConstructionAction(String constructionValue) {
+        return constructionActions[code(constructionValue)];
+    }
+}
@@ -0,0 +1,89 @@
+package org.openstreetmap.josm.plugins.nl_bag.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.validation.Severity;
+import org.openstreetmap.josm.data.validation.Test;
+import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.plugins.nl_bag.AddressNode;
+import org.openstreetmap.josm.plugins.nl_bag.PcHnrKey;
+import org.openstreetmap.josm.plugins.nl_bag.StreetHnrKey;
+import org.openstreetmap.josm.plugins.nl_bag.ValidationData;
+import org.openstreetmap.josm.tools.I18n;
+
+/**
+ * Checks for address nodes with the same postcode and house number, or with the same
+ * street and house number in the same city.
+ */
+public class DuplicateAddress extends Test {
+    public static final int DUPLICATE_PC_HNR = 13703;
+    public static final int DUPLICATE_STREET_HNR = 13704;
+
+    private static final String ADDR_HOUSENUMBER = "addr:housenumber";
+
+    private final ValidationData data;
+
+    public DuplicateAddress() {
+        super(tr("Duplicate addresses"), tr("Checks for duplicate address nodes."));
+        data = new ValidationData();
+    }
+
+    public ValidationData getValidationData() {
+        return data;
+    }
+
+    @Override
+    public void startTest(ProgressMonitor monitor) {
+        super.startTest(monitor);
+        data.clear();
+    }
+
+    @Override
+    public void visit(Node n) {
+        if (n.hasKey(ADDR_HOUSENUMBER)) {
+            data.add(new AddressNode(n));
+        }
+    }
+
+    @Override
+    public void endTest() {
+        for (Entry<PcHnrKey, Set<AddressNode>> entry : data.getDuplicatePcHnrNodes().entrySet()) {
+            PcHnrKey key = entry.getKey();
+            errors.add(TestError
+                    .builder(this, Severity.WARNING, DUPLICATE_PC_HNR)
+                    .message("Duplicate address",
+                            I18n.tr("Duplicate address {0} {1}",
+                                    key.getPostcode(), key.getFullHouseNumber()))
+                    .primitives(getNodes(entry.getValue()))
+                    .build());
+        }
+        for (Entry<StreetHnrKey, Set<AddressNode>> entry : data.getDuplicateStreetHnrNodes().entrySet()) {
+            StreetHnrKey key = entry.getKey();
+            errors.add(TestError
+                    .builder(this, Severity.WARNING, DUPLICATE_STREET_HNR)
+                    .message("Duplicate address",
+                            I18n.tr("Duplicate address {0} {1}",
+                                    key.getStreet(), key.getFullHouseNumber()))
+                    .primitives(getNodes(entry.getValue()))
+                    .build());
+        }
+        super.endTest();
+        data.clear();
+    }
+
+    private static List<OsmPrimitive> getNodes(Set<AddressNode> addressNodes) {
+        List<OsmPrimitive> nodes = new ArrayList<>(addressNodes.size());
+        for (AddressNode addressNode : addressNodes) {
+            nodes.add(addressNode.getNode());
+        }
+        return nodes;
+    }
+}
@@ -5,9 +5,10 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.function.Supplier;
@@ -17,6 +18,7 @@ import javax.swing.JOptionPane;
 import org.openstreetmap.josm.command.ChangePropertyCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.SequenceCommand;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.Relation;
@@ -25,12 +27,17 @@ import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.data.validation.TestError.Builder;
+import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.Notification;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.plugins.nl_bag.BagFlags;
+import org.openstreetmap.josm.plugins.nl_bag.BagMetrics;
 import org.openstreetmap.josm.plugins.nl_bag.BagObjectOsmPrimitive;
 import org.openstreetmap.josm.plugins.nl_bag.BagUtils;
 import org.openstreetmap.josm.plugins.nl_bag.RefBagKey;
 import org.openstreetmap.josm.plugins.nl_bag.BagValidationData;
+import org.openstreetmap.josm.plugins.nl_bag.DataSetBagIndex;
+import org.openstreetmap.josm.plugins.nl_bag.PartitionedRefBagIndex;
 import org.openstreetmap.josm.tools.I18n;
 import org.openstreetmap.josm.tools.Logging;
 import org.openstreetmap.josm.plugins.utilsplugin2.replacegeometry.*;
@@ -39,6 +46,13 @@ public class DuplicateBag extends Test {
     public static final int DUPLICATE_BAG = 13702;
 
     private final BagValidationData data;
+    private final Set<OsmPrimitive> visitedBagObjects = new HashSet<>();
+    // partitions of the visited objects, to only read these partitions of the index
+    private final Set<Integer> visitedPartitions = new HashSet<>();
+    private boolean visitedOtherRefBag;
+    private DataSetBagIndex index;
+    private long startTime;
+    private long visitedCount;
 
     public DuplicateBag() {
         super(tr("Duplicate BAG objects"), tr("Checks for duplicate BAG objects."));
@@ -52,39 +66,113 @@ public class DuplicateBag extends Test {
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
+        startTime = BagMetrics.timer(BagMetrics.VALIDATION_RUN).start();
+        visitedCount = 0;
         data.clear();
+        visitedBagObjects.clear();
+        visitedPartitions.clear();
+        visitedOtherRefBag = false;
+        DataSet ds = MainApplication.getLayerManager().getEditDataSet();
+        index = ds == null ? null : DataSetBagIndex.getIndex(ds);
     }
 
     @Override
     public void visit(Node n) {
-        if (BagUtils.isTaggedAsBagObject(n)) {
-        	BagObjectOsmPrimitive bagObjectNode = new BagObjectOsmPrimitive(n);
-            data.add(bagObjectNode);
-        }
+        visitBagObject(n);
     }
     
     public void visit(Way w) {
-        if (BagUtils.isTaggedAsBagObject(w)) {
-        	BagObjectOsmPrimitive bagObjectWay = new BagObjectOsmPrimitive(w);
-            data.add(bagObjectWay);
-        }
+        visitBagObject(w);
     }
 
     public void visit(Relation r) {
-        if (BagUtils.isTaggedAsBagObject(r)) {
-        	BagObjectOsmPrimitive bagObjectRelation = new BagObjectOsmPrimitive(r);
-            data.add(bagObjectRelation);
+        visitBagObject(r);
+    }
+
+    private void visitBagObject(OsmPrimitive osm) {
+        if (BagUtils.isTaggedAsBagObject(osm)) {
+            visitedCount++;
+            if (index != null && index.getDataSet() == osm.getDataSet()) {
+                // already indexed, only remember which objects were validated
+                if (partialSelection) {
+                    visitedBagObjects.add(osm);
+                    addPartitions(osm);
+                }
+            } else {
+                data.add(osm);
+            }
+        }
+    }
+
+    /**
+     * Check a data set from its maintained index, without visiting the primitives.
+     * The index is kept up to date from the data set events, so this finds the same duplicates as visiting all primitives.
+     * @param ds the data set
+     * @param monitor the progress monitor
+     */
+    void testIndex(DataSet ds, ProgressMonitor monitor) {
+        startTest(monitor);
+        index = DataSetBagIndex.getIndex(ds);
+        endTest();
+    }
+
+    private void addPartitions(OsmPrimitive osm) {
+        long key = BagUtils.parseRefBag(osm.get(BagUtils.REF_BAG));
+        if (key < 0) {
+            visitedOtherRefBag = true;
+        } else {
+            visitedPartitions.add(PartitionedRefBagIndex.getPartition(key));
+        }
+        long oldKey = BagUtils.parseRefBag(osm.get(BagUtils.REF_BAG_OLD));
+        if (oldKey >= 0) {
+            visitedPartitions.add(PartitionedRefBagIndex.getPartition(oldKey));
         }
     }
 
     @Override
     public void endTest() {
+        BagMetrics.Timer endTestTimer = BagMetrics.timer(BagMetrics.VALIDATION_END_TEST);
+        long endTestStart = endTestTimer.start();
+        if (index != null) {
+            progressMonitor.subTask(tr("Indexing BAG objects"));
+            // the duplicates of the validated objects are in their partitions, unless a ref:bag is not a number
+            Map<RefBagKey, Set<BagObjectOsmPrimitive>> duplicates = !partialSelection || visitedOtherRefBag
+                    ? index.getDuplicateRefBagOsmPrimitives(progressMonitor)
+                    : index.getDuplicateRefBagOsmPrimitives(progressMonitor, visitedPartitions::contains);
+            for (Entry<RefBagKey, Set<BagObjectOsmPrimitive>> entry : duplicates.entrySet()) {
+                if (!partialSelection || isVisited(entry.getValue())) {
+                    addTestErrorsRefBag(entry);
+                }
+            }
+        }
         for (Entry<RefBagKey, Set<BagObjectOsmPrimitive>> entry :
             data.getDuplicateRefBagOsmPrimitives().entrySet()) {
-            errors.addAll(buildTestErrorsRefBag(this, entry));
+            addTestErrorsRefBag(entry);
         }
         super.endTest();
         data.clear();
+        visitedBagObjects.clear();
+        visitedPartitions.clear();
+        index = null;
+        endTestTimer.stop(endTestStart);
+        BagMetrics.timer(BagMetrics.VALIDATION_RUN).stop(startTime);
+        BagMetrics.counter(BagMetrics.VALIDATION_VISITED).add(visitedCount);
+        BagMetrics.dumpIfEnabled();
+    }
+
+    private void addTestErrorsRefBag(Entry<RefBagKey, Set<BagObjectOsmPrimitive>> entry) {
+        BagMetrics.counter(BagMetrics.VALIDATION_DUPLICATES).increment();
+        BagMetrics.histogram(BagMetrics.VALIDATION_GROUP_SIZE).record(entry.getValue().size());
+        errors.addAll(buildTestErrorsRefBag(this, entry));
+    }
+
+    private boolean isVisited(Set<BagObjectOsmPrimitive> duplicates) {
+        for (BagObjectOsmPrimitive n : duplicates) {
+            if (visitedBagObjects.contains(n.getOsmPrimitive())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static Collection<? extends TestError> buildTestErrorsRefBag(
@@ -93,7 +181,7 @@ public class DuplicateBag extends Test {
         RefBagKey key = entry.getKey();
         Boolean hideFixer = false;
         for (BagObjectOsmPrimitive n : entry.getValue()) {
-        	hideFixer = hideFixer || BagUtils.isStaticCaravan(n.getOsmPrimitive()) || BagUtils.hasNoteBag(n.getOsmPrimitive());
+        	hideFixer = hideFixer || BagFlags.hasAny(n.getOsmPrimitive(), BagFlags.STATIC_CARAVAN | BagFlags.NOTE_BAG);
         	osmprimitives.add(n.getOsmPrimitive());
         }
 
@@ -128,41 +216,21 @@ public class DuplicateBag extends Test {
 
         @Override
         public Command get() {
-            if (osmprimitives.size() != 2)
-                return null;
-            Iterator<? extends OsmPrimitive> it = osmprimitives.iterator();
-            OsmPrimitive n1 = it.next();
-            OsmPrimitive n2 = it.next();
-            if (n1.isDeleted() || n1.isDeleted())
-                return null;
-            
-            OsmPrimitive originalPrimitive;
-            OsmPrimitive newPrimitive;
-            
-            // determine original and new primitive
-            if (n1.isNew() && !n2.isNew())
-            {
-            	originalPrimitive = n2;
-            	newPrimitive = n1;
+            BagMetrics.Timer timer = BagMetrics.timer(BagMetrics.FIXER_RUN);
+            long start = timer.start();
+            try {
+                return fix();
+            } finally {
+                timer.stop(start);
             }
-            else if (!n1.isNew() && n2.isNew())
-            {
-            	originalPrimitive = n1;
-            	newPrimitive = n2;
-            }
-            else
-            {
-            	// both new or original, don't fix
-            	return null;
-            }
-            
-    		if (BagUtils.isStaticCaravan(originalPrimitive) || 
-    			BagUtils.isStaticCaravan(newPrimitive) || 
-    			BagUtils.hasNoteBag(originalPrimitive))
-    		{
-    			// not going to touch objects with static_caravan and note:bag
-    			return null;
-    		}
+        }
+
+        private Command fix() {
+            OsmPrimitive[] pair = getFixablePair(osmprimitives);
+            if (pair == null)
+                return null;
+            OsmPrimitive originalPrimitive = pair[0];
+            OsmPrimitive newPrimitive = pair[1];
             
         	// phase 1
         	// update BAG-related fields
@@ -206,38 +274,83 @@ public class DuplicateBag extends Test {
 
             return null;
         }
+
+        /**
+         * Determine the original and new primitive of a duplicate pair.
+         * @param osmprimitives the duplicate primitives
+         * @return the original and new primitive, or null if the duplicates can't be fixed automatically
+         */
+        static OsmPrimitive[] getFixablePair(Collection<? extends OsmPrimitive> osmprimitives) {
+            if (osmprimitives.size() != 2)
+                return null;
+            Iterator<? extends OsmPrimitive> it = osmprimitives.iterator();
+            OsmPrimitive n1 = it.next();
+            OsmPrimitive n2 = it.next();
+            if (n1.isDeleted() || n2.isDeleted())
+                return null;
+            
+            OsmPrimitive originalPrimitive;
+            OsmPrimitive newPrimitive;
+            
+            // determine original and new primitive
+            if (n1.isNew() && !n2.isNew())
+            {
+            	originalPrimitive = n2;
+            	newPrimitive = n1;
+            }
+            else if (!n1.isNew() && n2.isNew())
+            {
+            	originalPrimitive = n1;
+            	newPrimitive = n2;
+            }
+            else
+            {
+            	// both new or original, don't fix
+            	return null;
+            }
+            
+    		if (BagFlags.hasAny(originalPrimitive, BagFlags.STATIC_CARAVAN | BagFlags.NOTE_BAG) ||
+    			BagFlags.has(newPrimitive, BagFlags.STATIC_CARAVAN))
+    		{
+    			// not going to touch objects with static_caravan and note:bag
+    			return null;
+    		}
+    		return new OsmPrimitive[] {originalPrimitive, newPrimitive};
+        }
         
        protected static SequenceCommand getUpdatedBAGObjectCommands(OsmPrimitive originalPrimitive, OsmPrimitive newPrimitive) 
         {
         	List<Command> commands = new ArrayList<>();
+        	int originalFlags = BagFlags.get(originalPrimitive);
+        	int newFlags = BagFlags.get(newPrimitive);
         	
         	// update ref:bag
-        	if (BagUtils.normalizeRefBag(originalPrimitive).equals(BagUtils.normalizeRefBag(newPrimitive)) && 
-        			!originalPrimitive.get(BagUtils.REF_BAG).equals(newPrimitive.get(BagUtils.REF_BAG)))
+        	String originalRefBag = originalPrimitive.get(BagUtils.REF_BAG);
+        	String newRefBag = newPrimitive.get(BagUtils.REF_BAG);
+        	if (BagUtils.isSameRefBag(originalRefBag, newRefBag) && !originalRefBag.equals(newRefBag))
         	{
         		// check both original and new
-        		if (originalPrimitive.get(BagUtils.REF_BAG).length() < 16)
+        		if (originalRefBag.length() < 16)
         		{
-        			commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.REF_BAG, BagUtils.normalizeRefBag(originalPrimitive)));        		
+        			commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.REF_BAG, BagUtils.normalizeRefBag(originalRefBag)));
     			}
-        		if (newPrimitive.get(BagUtils.REF_BAG).length() < 16)
+        		if (newRefBag.length() < 16)
         		{
-        			commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.REF_BAG, BagUtils.normalizeRefBag(newPrimitive)));        		
+        			commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.REF_BAG, BagUtils.normalizeRefBag(newRefBag)));
     			}
         	}
         	
         	// fix source:date
-            if (BagUtils.hasSourceDate(originalPrimitive) && BagUtils.hasSourceDate(newPrimitive))
+            int d1 = BagUtils.getSourceEpochDay(originalPrimitive);
+            int d2 = BagUtils.getSourceEpochDay(newPrimitive);
+            if (d1 != BagUtils.INVALID_DATE && d2 != BagUtils.INVALID_DATE)
             {
-            	Date d1 = BagUtils.getSourceDate(originalPrimitive);
-            	Date d2 = BagUtils.getSourceDate(newPrimitive);
-            	
-            	if (d2.before(d1))
+            	if (d2 < d1)
             	{
             		Logging.trace("BAGObject fixer: Update source date, will need 2nd pass");
                 	commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.SOURCE_DATE, originalPrimitive.get(BagUtils.SOURCE_DATE)));
             	}
-            	else if (d1.before(d2))
+            	else if (d1 < d2)
             	{
             		Logging.trace("BAGObject fixer: Update source date, will need 2nd pass");
             		commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.SOURCE_DATE, newPrimitive.get(BagUtils.SOURCE_DATE)));
@@ -249,129 +362,47 @@ public class DuplicateBag extends Test {
             }
             
             // try to migrate construction tag
-        	String buildingValueTag = BagUtils.BUILDING;
-            if (BagUtils.isConstruction(originalPrimitive) && !BagUtils.isConstruction(newPrimitive))
+            BuildingMergeTable mergeTable = BuildingMergeTable.getInstance();
+            String originalBuilding = originalPrimitive.get(BagUtils.BUILDING);
+            String newBuilding = newPrimitive.get(BagUtils.BUILDING);
+            if ((originalFlags & BagFlags.CONSTRUCTION) != 0 && (newFlags & BagFlags.CONSTRUCTION) == 0)
             {
-            	// set property source for next test
-        		buildingValueTag = BagUtils.CONSTRUCTION;
-        		
-        		switch(originalPrimitive.get(buildingValueTag))
-        		{
-	        		case "yes":
-	            	case "house":
-	            	case "apartments":
-	            	case "office":
-	            	case "industrial":
-	            	case "retail":
-	            		// one of the default BAG values, just take the new value
-	        			commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.BUILDING, newPrimitive.get(BagUtils.BUILDING)));
-	        			break;
-	        		default:
-	        			// possibly a custom value, retain the value
-	        			commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.BUILDING, originalPrimitive.get(buildingValueTag)));
-	        			commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.BUILDING, originalPrimitive.get(buildingValueTag)));
-	        			break;
-        		}
-        		
-        		// remove construction
-        		commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.CONSTRUCTION, null));
-        		
+                String construction = originalPrimitive.get(BagUtils.CONSTRUCTION);
+                if (mergeTable.getConstructionAction(construction) == BuildingMergeTable.TAKE_NEW)
+                {
+                    // one of the default BAG values, just take the new value
+                    commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.BUILDING, newBuilding));
+                }
+                else
+                {
+                    // possibly a custom value, retain the value
+                    commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.BUILDING, construction));
+                    commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.BUILDING, construction));
+                }
+
+                // remove construction
+                commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.CONSTRUCTION, null));
             }
-            
+
             // fix (retain/update) building tag
-            else if (isBuilding(originalPrimitive) && isBuilding(newPrimitive))
+            else if (originalBuilding != null && newBuilding != null && !originalBuilding.equals(newBuilding))
             {
-        		if (!originalPrimitive.get(buildingValueTag).equals(newPrimitive.get(BagUtils.BUILDING)))
-        		{
-        			if (newPrimitive.get(BagUtils.BUILDING).equals(BagUtils.YES))
-        			{
-        				// always use existing value if new value is 'yes'
-            			commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.BUILDING, originalPrimitive.get(BagUtils.BUILDING)));
-        			}
-        			else 
-        			{
-		            	switch (originalPrimitive.get(buildingValueTag))
-		            	{
-			            	case "barn":
-			            	case "bungalow":
-			            	case "bunker":
-			            	case "castle":
-			            	case "cathedral":
-			            	case "chapel":
-			            	case "church":
-			            	case "civic":
-			            	case "college":
-			            	case "dormitory":
-			            	case "farm":
-			            	case "farm_auxiliary":
-			            	case "fire_station":
-			            	case "garage":
-			            	case "garages":
-			            	case "government":
-			            	case "greenhouse":
-			            	case "hangar":
-			            	case "hospital":
-			            	case "hotel":
-			            	case "hut":
-			            	case "kindergarten":
-			            	case "monastery":
-			            	case "mosque":
-			            	case "prison":
-			            	case "school":
-			            	case "service":
-			            	case "shed":
-			            	case "stable":
-			            	case "stadium":
-			            	case "storage_tank":
-			            	case "supermarket":
-			            	case "synagogue":
-			            	case "temple":
-			            	case "train_station":
-			            	case "university":
-			            	case "warehouse":
-		            		// this custom value is probably better than BAG, so retain value
-			            		if (buildingValueTag.equals(BagUtils.CONSTRUCTION))
-			            		{
-			            			// promote construction value to building
-			            			commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.BUILDING, originalPrimitive.get(BagUtils.CONSTRUCTION)));
-			            			commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.BUILDING, originalPrimitive.get(BagUtils.CONSTRUCTION)));
-			            		}
-			            		else
-			            		{
-			            			// use existing value
-			            			commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.BUILDING, originalPrimitive.get(BagUtils.BUILDING)));
-			            		}
-			            		break;
-			            	case "construction":
-			            	case "yes":
-			            	case "house":
-			            	case "apartments":
-			            	case "office":
-			            	case "industrial":
-			            	case "retail":
-			            		if (buildingValueTag.equals(BagUtils.CONSTRUCTION))
-			            		{
-			            			// promote construction value to building
-			            			commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.BUILDING, originalPrimitive.get(BagUtils.CONSTRUCTION)));
-			            			commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.BUILDING, originalPrimitive.get(BagUtils.CONSTRUCTION)));
-			            		}
-			            		else
-			            		{
-				            		// use new value
-			            			commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.BUILDING, newPrimitive.get(BagUtils.BUILDING)));
-			            		}
-			            		break;
-			            	default:
-			            		// handle difference manually
-		            			//commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.BUILDING, newPrimitive.get(BagUtils.BUILDING)));
-			            		break;
-		            	}
-        			}
-        		}
+                switch (mergeTable.getBuildingAction(originalBuilding, newBuilding))
+                {
+                    case BuildingMergeTable.KEEP_ORIGINAL:
+                        commands.add(new ChangePropertyCommand(newPrimitive, BagUtils.BUILDING, originalBuilding));
+                        break;
+                    case BuildingMergeTable.TAKE_NEW:
+                        commands.add(new ChangePropertyCommand(originalPrimitive, BagUtils.BUILDING, newBuilding));
+                        break;
+                    default:
+                        // handle difference manually
+                        break;
+                }
             }
             
             // fix start_date tag
-            if (BagUtils.hasStartDate(originalPrimitive) && BagUtils.hasStartDate(newPrimitive))
+            if ((originalFlags & newFlags & BagFlags.START_DATE) != 0)
             {
             	if (!originalPrimitive.get(BagUtils.START_DATE).equals(newPrimitive.get(BagUtils.START_DATE)))
             	{
@@ -380,7 +411,7 @@ public class DuplicateBag extends Test {
             }
             
             // fix source tag
-            if (BagUtils.hasSource(originalPrimitive) && BagUtils.hasSource(newPrimitive))
+            if ((originalFlags & newFlags & BagFlags.SOURCE) != 0)
             {
             	if (!originalPrimitive.get(BagUtils.SOURCE).equals(newPrimitive.get(BagUtils.SOURCE)))
             	{
@@ -0,0 +1,181 @@
+package org.openstreetmap.josm.plugins.nl_bag.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.SequenceCommand;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.TagCollection;
+import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.gui.conflict.tags.TagConflictResolutionUtil;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.plugins.nl_bag.BagMetrics;
+import org.openstreetmap.josm.plugins.nl_bag.BagUtils;
+import org.openstreetmap.josm.plugins.nl_bag.validation.DuplicateBag.DuplicateBAGObjectFixer;
+import org.openstreetmap.josm.plugins.utilsplugin2.replacegeometry.ReplaceGeometryException;
+import org.openstreetmap.josm.plugins.utilsplugin2.replacegeometry.ReplaceGeometryUtils;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Fixes all duplicate BAG objects of one {@link DuplicateBag} run in a single pass.
+ * For every pair the BAG tags are updated first and the geometry is replaced directly after,
+ * so no validation is needed between the two phases. All changes are combined in one command.
+ * <p>
+ * The fixer runs unattended: pairs for which replacing the geometry would ask the user to resolve
+ * tag or relation conflicts are skipped and left for the single fix in the validator panel.
+ */
+public class DuplicateBagBatchFixer {
+    private final List<Command> commands = new ArrayList<>();
+    private int fixedCount;
+    private int skippedCount;
+
+    /**
+     * Build the command fixing all fixable duplicate BAG errors.
+     * The commands are executed pair by pair in the event dispatch thread while building, so each pair
+     * sees the result of the previous ones, and are always undone again before returning. These changes
+     * are not recorded in the undo stack but fire data set events, so the caller has to block editing
+     * while the fixer runs, e.g. with a modal progress dialog.
+     * <p>
+     * The returned command must be executed right away, before the data set is changed by anything else,
+     * as it was built for the current state of the data set.
+     * @param errors the validation errors, errors of other tests are ignored
+     * @param monitor the progress monitor, if canceled nothing is fixed
+     * @return the combined command, null if nothing can be fixed or the fixer was canceled
+     */
+    public Command fix(Collection<TestError> errors, ProgressMonitor monitor) {
+        BagMetrics.Timer timer = BagMetrics.timer(BagMetrics.FIXER_BATCH_RUN);
+        long start = timer.start();
+        commands.clear();
+        fixedCount = 0;
+        skippedCount = 0;
+        List<TestError> duplicates = new ArrayList<>();
+        for (TestError error : errors) {
+            if (error.getTester() instanceof DuplicateBag && error.getCode() == DuplicateBag.DUPLICATE_BAG) {
+                duplicates.add(error);
+            }
+        }
+        monitor.beginTask(tr("Fixing duplicate BAG objects"), duplicates.size());
+        try {
+            for (TestError error : duplicates) {
+                if (monitor.isCanceled()) {
+                    break;
+                }
+                boolean[] fixed = new boolean[1];
+                if (error.isFixable()) {
+                    GuiHelper.runInEDTAndWait(() -> fixed[0] = fixPair(error.getPrimitives()));
+                }
+                if (fixed[0]) {
+                    fixedCount++;
+                } else {
+                    skippedCount++;
+                }
+                monitor.worked(1);
+            }
+        } finally {
+            // restore the data set, the combined command is executed by the caller
+            GuiHelper.runInEDTAndWait(() -> undo(0));
+            monitor.finishTask();
+            timer.stop(start);
+        }
+        BagMetrics.counter(BagMetrics.FIXER_FIXED).add(fixedCount);
+        BagMetrics.counter(BagMetrics.FIXER_SKIPPED).add(skippedCount);
+        if (commands.isEmpty() || monitor.isCanceled()) {
+            return null;
+        }
+        return new SequenceCommand(tr("Fix duplicate BAG objects"), new ArrayList<>(commands));
+    }
+
+    /**
+     * Fix one pair. If the pair can't be fixed completely, its executed commands are undone and dropped.
+     * @param osmprimitives the duplicate primitives
+     * @return true if both phases were applied
+     */
+    private boolean fixPair(Collection<? extends OsmPrimitive> osmprimitives) {
+        OsmPrimitive[] pair = DuplicateBAGObjectFixer.getFixablePair(osmprimitives);
+        if (pair == null) {
+            return false;
+        }
+        int mark = commands.size();
+        try {
+            // phase 1, update BAG-related tags
+            Command updateTagsCommand = DuplicateBAGObjectFixer.getUpdatedBAGObjectCommands(pair[0], pair[1]);
+            if (updateTagsCommand != null) {
+                execute(updateTagsCommand);
+            }
+            // phase 2, replace geometry of the original object
+            if (needsConflictResolution(pair[0], pair[1])) {
+                Logging.trace("BAGObject batch fixer: skipped {0}, tag conflicts", pair[0].get(BagUtils.REF_BAG));
+            } else {
+                Command replaceCommand = ReplaceGeometryUtils.buildReplaceWithNewCommand(pair[0], pair[1]);
+                if (replaceCommand != null) {
+                    execute(replaceCommand);
+                    return true;
+                }
+            }
+        } catch (IllegalArgumentException | ReplaceGeometryException ex) {
+            Logging.trace("BAGObject batch fixer: " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            Logging.warn("BAGObject batch fixer: " + ex);
+        }
+        undo(mark);
+        commands.subList(mark, commands.size()).clear();
+        return false;
+    }
+
+    /**
+     * Check if replacing the geometry would open the tag conflict dialog, using the same rules as JOSM.
+     * @param originalPrimitive the original primitive
+     * @param newPrimitive the new primitive
+     * @return true if the user has to resolve conflicts
+     */
+    private static boolean needsConflictResolution(OsmPrimitive originalPrimitive, OsmPrimitive newPrimitive) {
+        List<OsmPrimitive> primitives = Arrays.asList(originalPrimitive, newPrimitive);
+        if (!OsmPrimitive.getParentRelations(primitives).isEmpty()) {
+            return true;
+        }
+        TagCollection tags = TagCollection.unionOfAllPrimitives(primitives);
+        TagConflictResolutionUtil.applyAutomaticTagConflictResolution(tags);
+        TagConflictResolutionUtil.normalizeTagCollectionBeforeEditing(tags, primitives);
+        TagConflictResolutionUtil.completeTagCollectionForEditing(tags);
+        return !tags.isApplicableToPrimitive();
+    }
+
+    private void execute(Command command) {
+        command.executeCommand();
+        commands.add(command);
+    }
+
+    /**
+     * Undo the executed commands from the given index, in reverse order.
+     * @param from index of the first command to undo
+     */
+    private void undo(int from) {
+        for (int i = commands.size() - 1; i >= from; i--) {
+            try {
+                commands.get(i).undoCommand();
+            } catch (RuntimeException ex) {
+                Logging.error(ex);
+            }
+        }
+    }
+
+    /**
+     * @return the number of duplicates fixed by the last call to {@link #fix(Collection, ProgressMonitor)}
+     */
+    public int getFixedCount() {
+        return fixedCount;
+    }
+
+    /**
+     * @return the number of duplicates which could not be fixed by the last call to {@link #fix(Collection, ProgressMonitor)}
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+}
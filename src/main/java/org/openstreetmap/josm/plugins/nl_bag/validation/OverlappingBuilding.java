@@ -0,0 +1,214 @@
+package org.openstreetmap.josm.plugins.nl_bag.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.TopologyException;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.validation.Severity;
+import org.openstreetmap.josm.data.validation.Test;
+import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.plugins.nl_bag.BagFlags;
+import org.openstreetmap.josm.plugins.nl_bag.BagUtils;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.tools.I18n;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Checks for buildings without ref:bag lying under a BAG building, which the {@link DuplicateBag} check
+ * can't find. The BAG buildings are bulk loaded into an STR-tree, which is queried with the envelope of
+ * each untagged building. The overlap of the candidates is the area of the intersection relative to the
+ * smaller of both buildings.
+ * <p>
+ * With a partial selection, such as on upload, the BAG buildings near the selected untagged buildings
+ * and the untagged buildings near the selected BAG buildings are added, so both an edited building and
+ * a newly imported BAG building are checked against the unchanged buildings around them.
+ * <p>
+ * Only closed ways are checked, multipolygon buildings are skipped.
+ */
+public class OverlappingBuilding extends Test {
+    public static final int OVERLAPPING_BUILDING = 13709;
+    /** Preference with the minimum overlap to report, as fraction of the smaller building */
+    public static final String PREF_MIN_OVERLAP = "nl_bag.validation.overlap";
+    private static final double DEFAULT_MIN_OVERLAP = 0.5;
+
+    private final GeometryFactory factory = new GeometryFactory();
+    private final List<Way> bagBuildings = new ArrayList<>();
+    private final List<Way> untaggedBuildings = new ArrayList<>();
+
+    public OverlappingBuilding() {
+        super(tr("Buildings under BAG buildings"), tr("Checks for buildings without ref:bag overlapping a BAG building."));
+    }
+
+    @Override
+    public void startTest(ProgressMonitor monitor) {
+        super.startTest(monitor);
+        bagBuildings.clear();
+        untaggedBuildings.clear();
+    }
+
+    @Override
+    public void visit(Way w) {
+        if (!w.hasKeys() || !w.isClosed() || w.isIncomplete() || w.isDeleted()) {
+            return;
+        }
+        int flags = BagFlags.get(w);
+        if ((flags & BagFlags.BUILDING) == 0) {
+            return;
+        }
+        if ((flags & BagFlags.BAG_OBJECT) != 0) {
+            bagBuildings.add(w);
+        } else {
+            untaggedBuildings.add(w);
+        }
+    }
+
+    @Override
+    public void endTest() {
+        if (partialSelection) {
+            List<Way> selectedBagBuildings = new ArrayList<>(bagBuildings);
+            List<Way> selectedUntaggedBuildings = new ArrayList<>(untaggedBuildings);
+            addNearbyBuildings(selectedUntaggedBuildings, bagBuildings, true);
+            addNearbyBuildings(selectedBagBuildings, untaggedBuildings, false);
+        }
+        if (!untaggedBuildings.isEmpty() && !bagBuildings.isEmpty()) {
+            match(buildIndex());
+        }
+        super.endTest();
+        bagBuildings.clear();
+        untaggedBuildings.clear();
+    }
+
+    /**
+     * Add the buildings near the selected buildings which were not selected.
+     * @param selected the selected buildings to search around
+     * @param target the list to add the found buildings to
+     * @param bag true to find BAG buildings, false to find untagged buildings
+     */
+    private static void addNearbyBuildings(List<Way> selected, List<Way> target, boolean bag) {
+        Set<Way> known = Collections.newSetFromMap(new IdentityHashMap<>());
+        known.addAll(target);
+        for (Way building : selected) {
+            DataSet ds = building.getDataSet();
+            if (ds == null) {
+                continue;
+            }
+            for (Way w : ds.searchWays(building.getBBox())) {
+                if (!w.isClosed() || w.isIncomplete() || w.isDeleted()) {
+                    continue;
+                }
+                int flags = BagFlags.get(w);
+                if ((flags & BagFlags.BUILDING) != 0 && ((flags & BagFlags.BAG_OBJECT) != 0) == bag && known.add(w)) {
+                    target.add(w);
+                }
+            }
+        }
+    }
+
+    private STRtree buildIndex() {
+        STRtree tree = new STRtree();
+        for (Way w : bagBuildings) {
+            Polygon polygon = toPolygon(w);
+            if (polygon != null) {
+                tree.insert(polygon.getEnvelopeInternal(), new Candidate(w, polygon));
+            }
+        }
+        tree.build();
+        return tree;
+    }
+
+    private void match(STRtree tree) {
+        double minOverlap = Config.getPref().getDouble(PREF_MIN_OVERLAP, DEFAULT_MIN_OVERLAP);
+        for (Way untagged : untaggedBuildings) {
+            if (isCanceled()) {
+                return;
+            }
+            Polygon polygon = toPolygon(untagged);
+            if (polygon == null) {
+                continue;
+            }
+            List<?> candidates = tree.query(polygon.getEnvelopeInternal());
+            if (candidates.isEmpty()) {
+                continue;
+            }
+            PreparedGeometry prepared = PreparedGeometryFactory.prepare(polygon);
+            for (Object o : candidates) {
+                Candidate candidate = (Candidate) o;
+                if (candidate.way == untagged || !prepared.intersects(candidate.polygon)) {
+                    continue;
+                }
+                double overlap = getOverlap(polygon, candidate.polygon);
+                if (overlap >= minOverlap) {
+                    errors.add(TestError
+                            .builder(this, Severity.WARNING, OVERLAPPING_BUILDING)
+                            .message("Building under BAG building",
+                                    I18n.tr("Building overlaps BAG building {0} for {1}%",
+                                            candidate.way.get(BagUtils.REF_BAG), Math.round(overlap * 100)))
+                            .primitives(untagged, candidate.way)
+                            .build());
+                }
+            }
+        }
+    }
+
+    private static double getOverlap(Geometry a, Geometry b) {
+        double smallest = Math.min(a.getArea(), b.getArea());
+        if (smallest <= 0) {
+            return 0;
+        }
+        try {
+            return a.intersection(b).getArea() / smallest;
+        } catch (TopologyException e) {
+            // self-intersecting buildings are reported by other tests
+            Logging.trace("NL-BAG overlap: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * @param w a closed way
+     * @return the polygon of the way in lon/lat, null if it has too few or unknown nodes
+     */
+    private Polygon toPolygon(Way w) {
+        List<Node> nodes = w.getNodes();
+        if (nodes.size() < 4) {
+            return null;
+        }
+        Coordinate[] coordinates = new Coordinate[nodes.size()];
+        for (int i = 0; i < coordinates.length; i++) {
+            Node node = nodes.get(i);
+            if (!node.isLatLonKnown()) {
+                return null;
+            }
+            // areas are only compared relative to each other, so no projection is needed
+            coordinates[i] = new Coordinate(node.lon(), node.lat());
+        }
+        return factory.createPolygon(coordinates);
+    }
+
+    private static final class Candidate {
+        final Way way;
+        final Polygon polygon;
+
+        Candidate(Way way, Polygon polygon) {
+            this.way = way;
+            this.polygon = polygon;
+        }
+    }
+}